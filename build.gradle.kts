@@ -10,7 +10,7 @@ plugins {
 
 java {
     toolchain {
-        languageVersion.set(JavaLanguageVersion.of(17))
+        languageVersion.set(JavaLanguageVersion.of(21))
     }
 }
 
@@ -33,12 +33,19 @@ dependencies {
     implementation(libs.common)
     implementation(libs.jansi)
     implementation(libs.jline.reader)
+    testImplementation(platform(libs.junit.bom))
+    testImplementation(libs.junit.jupiter)
+    testRuntimeOnly(libs.junit.platform.launcher)
 }
 
 application {
     mainClass.set("org.cloudburstmc.proxypass.ProxyPass")
 }
 
+tasks.test {
+    useJUnitPlatform()
+}
+
 tasks.shadowJar {
     archiveClassifier.set("")
     archiveVersion.set("")
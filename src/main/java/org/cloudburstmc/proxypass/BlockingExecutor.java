@@ -0,0 +1,115 @@
+package org.cloudburstmc.proxypass;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs blocking file and image work away from the Netty event loops. By default every task gets its own virtual
+ * thread, so a slow disk only parks cheap threads. Tasks writing to the same file run in the order they were
+ * submitted.
+ */
+@Log4j2
+public class BlockingExecutor {
+    private final ExecutorService executor;
+    private final Map<Path, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    /**
+     * @param threads number of platform threads to use, 0 for virtual threads
+     */
+    public BlockingExecutor(int threads) {
+        if (threads > 0) {
+            this.executor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("ProxyPass Blocking #", 0).daemon().factory());
+        } else {
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ProxyPass Blocking #", 0).factory());
+        }
+    }
+
+    public CompletableFuture<Void> execute(Runnable task) {
+        return CompletableFuture.runAsync(wrap(null, task), this.executor);
+    }
+
+    /**
+     * Runs the task after every task previously submitted for the same target has finished.
+     */
+    public CompletableFuture<Void> execute(Path target, Runnable task) {
+        return execute(target, null, task);
+    }
+
+    private CompletableFuture<Void> execute(Path target, String scope, Runnable task) {
+        Runnable wrapped = wrap(scope, task);
+        CompletableFuture<Void> future = this.tails.compute(target, (path, previous) -> previous == null ?
+                CompletableFuture.runAsync(wrapped, this.executor) : previous.thenRunAsync(wrapped, this.executor));
+        future.whenComplete((ignored, throwable) -> this.tails.remove(target, future));
+        return future;
+    }
+
+    public Scope newScope(String name) {
+        return new Scope(name);
+    }
+
+    public void shutdown() {
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Blocking tasks did not finish in time, some files may be incomplete");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Runnable wrap(String scope, Runnable task) {
+        // Never complete exceptionally, otherwise tasks queued behind this one for the same file would be skipped.
+        return () -> {
+            try {
+                task.run();
+            } catch (Throwable throwable) {
+                if (scope == null) {
+                    log.error("Blocking task failed", throwable);
+                } else {
+                    log.error("Blocking task for {} failed", scope, throwable);
+                }
+            }
+        };
+    }
+
+    /**
+     * Groups the tasks of one session so they can be waited on when the session closes.
+     */
+    public final class Scope {
+        private final String name;
+        private final Set<CompletableFuture<Void>> pending = ConcurrentHashMap.newKeySet();
+
+        private Scope(String name) {
+            this.name = name;
+        }
+
+        public void execute(Runnable task) {
+            track(CompletableFuture.runAsync(wrap(this.name, task), BlockingExecutor.this.executor));
+        }
+
+        public void execute(Path target, Runnable task) {
+            track(BlockingExecutor.this.execute(target, this.name, task));
+        }
+
+        private void track(CompletableFuture<Void> future) {
+            this.pending.add(future);
+            future.whenComplete((ignored, throwable) -> this.pending.remove(future));
+        }
+
+        /**
+         * @return a future that completes once every task submitted to this scope has finished
+         */
+        public CompletableFuture<Void> close() {
+            return CompletableFuture.allOf(this.pending.toArray(new CompletableFuture[0]));
+        }
+    }
+}
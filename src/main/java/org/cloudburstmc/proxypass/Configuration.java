@@ -1,9 +1,17 @@
 package org.cloudburstmc.proxypass;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
+import org.cloudburstmc.proxypass.network.bedrock.logging.PacketFilter;
+import org.cloudburstmc.proxypass.network.bedrock.routing.LoadBalancingStrategy;
+import org.cloudburstmc.proxypass.network.bedrock.util.BlockIdFormat;
+import org.cloudburstmc.proxypass.network.bedrock.util.LeakDetection;
+import org.cloudburstmc.proxypass.network.bedrock.util.LogFormat;
 import org.cloudburstmc.proxypass.network.bedrock.util.LogTo;
+import org.cloudburstmc.proxypass.network.bedrock.util.SkinExport;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -14,14 +22,23 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
+/**
+ * Snapshot of config.yml. Instances are never modified after loading, a reload swaps in a new one.
+ */
 @Getter
 @ToString
 public class Configuration {
 
     private Address proxy;
     private Address destination;
+    private List<Address> destinations = Collections.emptyList();
+    @JsonProperty("load-balancing")
+    private LoadBalancingStrategy loadBalancing = LoadBalancingStrategy.ROUND_ROBIN;
+    @JsonProperty("health-check-interval")
+    private int healthCheckInterval = 5;
 
     @JsonProperty("packet-testing")
     private boolean packetTesting = false;
@@ -29,20 +46,82 @@ public class Configuration {
     private boolean loggingPackets = false;
     @JsonProperty("max-clients")
     private int maxClients = 0;
+    @JsonProperty("ip-rate-limit")
+    private double ipRateLimit = 0;
+    @JsonProperty("ip-rate-limit-burst")
+    private int ipRateLimitBurst = 5;
+    @JsonProperty("max-concurrent-handshakes")
+    private int maxConcurrentHandshakes = 0;
+    @JsonProperty("relay-motd")
+    private boolean relayMotd = false;
     @JsonProperty("log-to")
     private LogTo logTo = LogTo.FILE;
+    @JsonProperty("log-format")
+    private LogFormat logFormat = LogFormat.TEXT;
+
+    @JsonProperty("skin-export")
+    private SkinExport skinExport = SkinExport.PNG;
+    @JsonProperty("deduplicate-skins")
+    private boolean deduplicateSkins = true;
+
+    @JsonProperty("flight-recorder-size")
+    private int flightRecorderSize = 1024;
+    @JsonProperty("flight-recorder-seconds")
+    private int flightRecorderSeconds = 30;
+
+    @JsonProperty("high-water-mark")
+    private int highWaterMark = 1024 * 1024;
+    @JsonProperty("low-water-mark")
+    private int lowWaterMark = 256 * 1024;
+
+    @JsonProperty("client-block-ids")
+    private BlockIdFormat clientBlockIds = BlockIdFormat.SERVER;
+
+    @JsonProperty("blob-cache-size")
+    private int blobCacheSize = 0;
+
+    @JsonProperty("compact-json")
+    private boolean compactJson = false;
+    @JsonProperty("gzip-json")
+    private boolean gzipJson = false;
+
+    @JsonProperty("blocking-threads")
+    private int blockingThreads = 0;
+    @JsonProperty("stall-threshold")
+    private int stallThreshold = 200;
+    @JsonProperty("leak-detection")
+    private LeakDetection leakDetection = LeakDetection.DISABLED;
+
+    private boolean console = false;
 
     @JsonProperty("ignored-packets")
     private Set<String> ignoredPackets = Collections.emptySet();
+    @JsonProperty("included-packets")
+    private Set<String> includedPackets = Collections.emptySet();
+
+    @JsonIgnore
+    @ToString.Exclude
+    private PacketFilter packetFilter;
 
     public static Configuration load(Path path) throws IOException {
         try (BufferedReader reader = Files.newBufferedReader(path)) {
-            return ProxyPass.YAML_MAPPER.readValue(reader, Configuration.class);
+            return ProxyPass.YAML_MAPPER.readValue(reader, Configuration.class).init();
         }
     }
 
     public static Configuration load(InputStream stream) throws IOException {
-        return ProxyPass.YAML_MAPPER.readValue(stream, Configuration.class);
+        return ProxyPass.YAML_MAPPER.readValue(stream, Configuration.class).init();
+    }
+
+    private Configuration init() {
+        if (this.destination == null && this.destinations.isEmpty()) {
+            throw new IllegalArgumentException("Either destination or destinations must be set");
+        }
+        if (this.lowWaterMark < 0 || this.lowWaterMark > this.highWaterMark) {
+            throw new IllegalArgumentException("low-water-mark must be between 0 and high-water-mark");
+        }
+        this.packetFilter = PacketFilter.of(this.ignoredPackets, this.includedPackets);
+        return this;
     }
 
     public static void save(Path path, Configuration configuration) throws IOException {
@@ -53,6 +132,7 @@ public class Configuration {
 
     @Getter
     @ToString
+    @EqualsAndHashCode
     public static class Address {
         private String host;
         private int port;
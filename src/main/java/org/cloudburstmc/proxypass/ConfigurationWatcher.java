@@ -0,0 +1,78 @@
+package org.cloudburstmc.proxypass;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.file.*;
+
+/**
+ * Reloads config.yml whenever it changes on disk.
+ */
+@Log4j2
+public class ConfigurationWatcher implements Runnable {
+    // Editors tend to save in several steps, wait for them to finish before reading the file.
+    private static final long SETTLE_MILLIS = 250;
+
+    private final ProxyPass proxy;
+    private final Path path;
+
+    public ConfigurationWatcher(ProxyPass proxy, Path path) {
+        this.proxy = proxy;
+        this.path = path.toAbsolutePath().normalize();
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "ProxyPass Config Watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        Path directory = path.getParent();
+        try (WatchService watchService = directory.getFileSystem().newWatchService()) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+            while (proxy.getRunning().get()) {
+                WatchKey key = watchService.take();
+                boolean changed = isConfigChanged(key);
+                if (!key.reset()) {
+                    log.warn("Configuration directory is no longer accessible, hot reloading disabled");
+                    return;
+                }
+
+                if (changed) {
+                    Thread.sleep(SETTLE_MILLIS);
+                    WatchKey pending;
+                    while ((pending = watchService.poll()) != null) {
+                        pending.pollEvents();
+                        pending.reset();
+                    }
+                    reload();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Unable to watch configuration file, hot reloading disabled", e);
+        }
+    }
+
+    private boolean isConfigChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path changedPath && path.getFileName().equals(changedPath.getFileName())) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private void reload() {
+        try {
+            proxy.reloadConfiguration(Configuration.load(path));
+        } catch (Exception e) {
+            log.error("Failed to reload configuration, keeping the current one", e);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.cloudburstmc.proxypass;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.FastThreadLocal;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.proxypass.network.bedrock.jfr.EventLoopStallEvent;
+import org.cloudburstmc.proxypass.network.bedrock.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Regularly queues a probe task on every event loop and measures how long it waits before running. A probe that
+ * is still waiting after the stall threshold means the loop is blocked, the packet it was handling and a stack
+ * sample of its thread are logged so the cause can be found.
+ */
+@Log4j2
+public class EventLoopWatchdog {
+    private static final long PROBE_INTERVAL_MILLIS = 100;
+    private static final int STACK_DEPTH = 24;
+
+    private static final Map<Thread, Activity> ACTIVITIES = new ConcurrentHashMap<>();
+    private static final FastThreadLocal<Activity> ACTIVITY = new FastThreadLocal<>() {
+        @Override
+        protected Activity initialValue() {
+            Activity activity = new Activity();
+            ACTIVITIES.put(Thread.currentThread(), activity);
+            return activity;
+        }
+    };
+
+    private final ProxyPass proxy;
+    private final List<Probe> probes = new ArrayList<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("ProxyPass Watchdog").daemon().factory());
+
+    public EventLoopWatchdog(ProxyPass proxy, EventLoopGroup group) {
+        this.proxy = proxy;
+        int index = 0;
+        for (EventExecutor loop : group) {
+            probes.add(new Probe(loop, "loop #" + index++));
+        }
+    }
+
+    /**
+     * @return what the calling event loop thread is working on
+     */
+    public static Activity activity() {
+        return ACTIVITY.get();
+    }
+
+    public void start() {
+        executor.scheduleAtFixedRate(this::check, PROBE_INTERVAL_MILLIS, PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        executor.scheduleAtFixedRate(this::logSummary, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private void check() {
+        long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(proxy.getConfiguration().getStallThreshold());
+        long now = System.nanoTime();
+        for (Probe probe : probes) {
+            try {
+                probe.check(now, thresholdNanos);
+            } catch (RuntimeException e) {
+                // A rejected probe during shutdown must not cancel the schedule.
+                log.debug("Unable to probe {}", probe.name, e);
+            }
+        }
+    }
+
+    private void logSummary() {
+        for (Probe probe : probes) {
+            log.debug("Event loop {} lag: {}", probe.name, probe.lag.summary());
+        }
+    }
+
+    /**
+     * @return scheduling lag of each event loop since startup, by loop name
+     */
+    public Map<String, LatencyHistogram> getLagHistograms() {
+        Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+        for (Probe probe : probes) {
+            histograms.put(probe.name, probe.lag);
+        }
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    private static class Probe implements Runnable {
+        private final EventExecutor loop;
+        private final String name;
+        private final LatencyHistogram lag = new LatencyHistogram();
+        private volatile Thread thread;
+        private volatile long submitted;
+        private volatile boolean pending;
+        private volatile boolean reported;
+
+        Probe(EventExecutor loop, String name) {
+            this.loop = loop;
+            this.name = name;
+        }
+
+        void check(long now, long thresholdNanos) {
+            if (!pending) {
+                submitted = now;
+                reported = false;
+                pending = true;
+                loop.execute(this);
+                return;
+            }
+            long stalledNanos = now - submitted;
+            if (thresholdNanos > 0 && !reported && stalledNanos > thresholdNanos) {
+                reported = true;
+                report(TimeUnit.NANOSECONDS.toMillis(stalledNanos));
+            }
+        }
+
+        private void report(long stalledMillis) {
+            Thread thread = this.thread;
+            Activity activity = thread == null ? null : ACTIVITIES.get(thread);
+            String packetType = null;
+            String session = null;
+            if (activity != null) {
+                session = activity.session;
+                Class<?> packet = activity.packet;
+                packetType = packet == null ? null : packet.getSimpleName();
+            }
+
+            StringBuilder stack = new StringBuilder();
+            if (thread != null) {
+                StackTraceElement[] elements = thread.getStackTrace();
+                for (int i = 0; i < Math.min(STACK_DEPTH, elements.length); i++) {
+                    stack.append("\n\tat ").append(elements[i]);
+                }
+            }
+            if (packetType != null) {
+                log.warn("Event loop {} stalled for {} ms handling {} of {}{}", name, stalledMillis, packetType, session, stack);
+            } else {
+                log.warn("Event loop {} stalled for {} ms{}", name, stalledMillis, stack);
+            }
+
+            EventLoopStallEvent event = new EventLoopStallEvent();
+            if (event.shouldCommit()) {
+                event.eventLoop = name;
+                event.stalledMillis = stalledMillis;
+                event.packetType = packetType;
+                event.session = session;
+                event.commit();
+            }
+        }
+
+        @Override
+        public void run() {
+            long lagNanos = System.nanoTime() - submitted;
+            thread = Thread.currentThread();
+            lag.record(lagNanos, TimeUnit.NANOSECONDS);
+            if (reported) {
+                log.info("Event loop {} recovered after {} ms", name, TimeUnit.NANOSECONDS.toMillis(lagNanos));
+            }
+            pending = false;
+        }
+    }
+
+    /**
+     * The packet an event loop thread is handling. Written by that thread only, read by the watchdog.
+     */
+    public static class Activity {
+        private volatile Class<?> packet;
+        private volatile String session;
+
+        public void begin(Class<?> packet, String session) {
+            this.session = session;
+            this.packet = packet;
+        }
+
+        public void end() {
+            this.packet = null;
+            this.session = null;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package org.cloudburstmc.proxypass;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.proxypass.network.bedrock.cache.ChunkBlobCache;
+import org.cloudburstmc.proxypass.network.bedrock.logging.PacketFilter;
+import org.cloudburstmc.proxypass.network.bedrock.session.Backpressure;
+import org.cloudburstmc.proxypass.network.bedrock.session.JoinTimeline;
+import org.cloudburstmc.proxypass.network.bedrock.session.ProxyPlayerSession;
+import org.cloudburstmc.proxypass.network.bedrock.session.TrafficStats;
+import org.cloudburstmc.proxypass.network.bedrock.util.AllocatorStats;
+import org.cloudburstmc.proxypass.network.bedrock.util.LeakDetection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.config.Property;
+import org.jline.reader.EndOfFileException;
+import org.jline.reader.LineReader;
+import org.jline.reader.LineReaderBuilder;
+import org.jline.reader.UserInterruptException;
+import org.jline.reader.impl.completer.StringsCompleter;
+import org.jline.terminal.Attributes;
+import org.jline.terminal.Terminal;
+import org.jline.terminal.TerminalBuilder;
+import org.jline.utils.InfoCmp;
+import org.jline.utils.NonBlockingReader;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Reads commands from the terminal the proxy was started in.
+ */
+@Log4j2
+public class ProxyConsole {
+    private static final List<String> COMMANDS = List.of("help", "top", "sessions", "capture", "dump", "drain", "stats", "memory", "leaks", "joins", "stop");
+    private static final int TOP_TYPES = 15;
+    // Name of the console appender in log4j2.xml.
+    private static final String LOG_APPENDER = "Console";
+
+    private final ProxyPass proxy;
+
+    public ProxyConsole(ProxyPass proxy) {
+        this.proxy = proxy;
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::run, "Console");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        try (Terminal terminal = TerminalBuilder.builder().system(true).dumb(true).build()) {
+            // Without a real terminal, for example under a service manager, the proxy just runs without a console.
+            if (Terminal.TYPE_DUMB.equals(terminal.getType()) || Terminal.TYPE_DUMB_COLOR.equals(terminal.getType())) {
+                log.info("No terminal attached, the console is disabled");
+                return;
+            }
+            LineReader reader = LineReaderBuilder.builder()
+                    .terminal(terminal)
+                    .completer(new StringsCompleter(COMMANDS))
+                    .build();
+            Appender appender = redirectLogging(reader);
+            try {
+                readCommands(terminal, reader);
+            } finally {
+                restoreLogging(appender);
+            }
+        } catch (IOException e) {
+            log.error("Unable to open the console", e);
+        }
+    }
+
+    /**
+     * Replaces the console log appender with one printing above the prompt, so log lines don't end up in the
+     * middle of what is being typed.
+     *
+     * @return the replaced appender, null if there is none
+     */
+    private static Appender redirectLogging(LineReader reader) {
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        LoggerConfig root = context.getConfiguration().getRootLogger();
+        Appender console = root.getAppenders().get(LOG_APPENDER);
+        if (console == null) {
+            return null;
+        }
+        Appender appender = new AbstractAppender(LOG_APPENDER, null, console.getLayout(), true, Property.EMPTY_ARRAY) {
+            @Override
+            public void append(LogEvent event) {
+                reader.printAbove(new String(getLayout().toByteArray(event), StandardCharsets.UTF_8).stripTrailing());
+            }
+        };
+        appender.start();
+        root.removeAppender(LOG_APPENDER);
+        root.addAppender(appender, null, null);
+        context.updateLoggers();
+        return console;
+    }
+
+    private static void restoreLogging(Appender console) {
+        if (console == null) {
+            return;
+        }
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        LoggerConfig root = context.getConfiguration().getRootLogger();
+        root.removeAppender(LOG_APPENDER);
+        root.addAppender(console, null, null);
+        context.updateLoggers();
+    }
+
+    private void readCommands(Terminal terminal, LineReader reader) {
+        while (proxy.getRunning().get()) {
+            String line;
+            try {
+                line = reader.readLine("> ");
+            } catch (UserInterruptException e) {
+                proxy.shutdown();
+                return;
+            } catch (EndOfFileException e) {
+                // No input attached, keep running without a console.
+                return;
+            }
+            try {
+                execute(terminal, line.trim().split("\\s+"));
+            } catch (IOException | RuntimeException e) {
+                log.error("Command failed: {}", line, e);
+            }
+            terminal.writer().flush();
+        }
+    }
+
+    private void execute(Terminal terminal, String[] args) throws IOException {
+        PrintWriter out = terminal.writer();
+        switch (args[0].toLowerCase(Locale.ROOT)) {
+            case "" -> {
+            }
+            case "help" -> {
+                out.println("top                          live traffic per player and packet type, any key to leave");
+                out.println("sessions                     connected players");
+                out.println("capture <player> on|off|default  log all, none or the configured packets of a player");
+                out.println("dump [player]                save the recent packets of one or all players");
+                out.println("drain                        stop admitting players, shut down once all have left");
+                out.println("stats                        event loop, memory and cache statistics");
+                out.println("memory                       buffer pool usage and memory held per player");
+                out.println("leaks [level]                show or set buffer leak detection: disabled, simple, advanced, paranoid");
+                out.println("joins                        time taken by each step of joining, across all joins");
+                out.println("stop                         shut down now");
+            }
+            case "top" -> top(terminal);
+            case "sessions" -> {
+                long now = System.currentTimeMillis();
+                for (ProxyPlayerSession player : proxy.getPlayers()) {
+                    out.printf("%-20s %-22s %5ds%n", player.getIdentityData().displayName,
+                            player.getUpstream().getSocketAddress(), (now - player.getTimestamp()) / 1000);
+                }
+                out.println(proxy.getPlayers().size() + " players");
+            }
+            case "capture" -> {
+                if (args.length < 3) {
+                    out.println("Usage: capture <player> on|off|default");
+                    return;
+                }
+                ProxyPlayerSession player = findPlayer(args[1]);
+                if (player == null) {
+                    out.println("No player named " + args[1]);
+                    return;
+                }
+                switch (args[2].toLowerCase(Locale.ROOT)) {
+                    case "on" -> player.getLogger().setPacketFilter(PacketFilter.NONE);
+                    case "off" -> player.getLogger().setPacketFilter(PacketFilter.ALL);
+                    case "default" -> player.getLogger().setPacketFilter(null);
+                    default -> {
+                        out.println("Usage: capture <player> on|off|default");
+                        return;
+                    }
+                }
+                out.println("Capture of " + player.getIdentityData().displayName + " set to " + args[2]);
+            }
+            case "dump" -> {
+                if (args.length < 2) {
+                    proxy.dumpFlightRecorders();
+                    return;
+                }
+                ProxyPlayerSession player = findPlayer(args[1]);
+                if (player == null) {
+                    out.println("No player named " + args[1]);
+                } else {
+                    player.dumpFlightRecorder("manual");
+                }
+            }
+            case "drain" -> proxy.drain();
+            case "stats" -> stats(out);
+            case "memory" -> memory(out);
+            case "joins" -> JoinTimeline.getHistograms().forEach((phase, histogram) ->
+                    out.printf("%-18s %s%n", phase.getName(), histogram.summary()));
+            case "leaks" -> {
+                if (args.length > 1) {
+                    try {
+                        ResourceLeakDetector.setLevel(LeakDetection.valueOf(args[1].toUpperCase(Locale.ROOT)).level);
+                    } catch (IllegalArgumentException e) {
+                        out.println("Unknown level " + args[1]);
+                    }
+                }
+                out.println("Leak detection: " + ResourceLeakDetector.getLevel().name().toLowerCase(Locale.ROOT));
+            }
+            case "stop" -> proxy.shutdown();
+            default -> out.println("Unknown command, try help");
+        }
+    }
+
+    private ProxyPlayerSession findPlayer(String name) {
+        for (ProxyPlayerSession player : proxy.getPlayers()) {
+            if (player.getIdentityData().displayName.equalsIgnoreCase(name)) {
+                return player;
+            }
+        }
+        return null;
+    }
+
+    private void top(Terminal terminal) throws IOException {
+        Map<Object, long[]> previous = new HashMap<>();
+        readCounters(previous);
+        long previousTime = System.nanoTime();
+
+        Attributes attributes = terminal.enterRawMode();
+        try {
+            NonBlockingReader reader = terminal.reader();
+            while (proxy.getRunning().get()) {
+                int read = reader.read(1000);
+                if (read != NonBlockingReader.READ_EXPIRED) {
+                    // Any key, or the input going away.
+                    return;
+                }
+
+                Map<Object, long[]> current = new HashMap<>();
+                readCounters(current);
+                long now = System.nanoTime();
+                double seconds = (now - previousTime) / 1e9;
+
+                terminal.puts(InfoCmp.Capability.clear_screen);
+                renderTop(terminal.writer(), previous, current, seconds);
+                terminal.writer().flush();
+
+                previous = current;
+                previousTime = now;
+            }
+        } finally {
+            terminal.setAttributes(attributes);
+        }
+    }
+
+    private void readCounters(Map<Object, long[]> counters) {
+        for (ProxyPlayerSession player : proxy.getPlayers()) {
+            TrafficStats traffic = player.getTraffic();
+            counters.put(player, new long[]{traffic.getServerboundPackets(), traffic.getClientboundPackets(),
+                    traffic.getServerboundBytes(), traffic.getClientboundBytes()});
+        }
+        for (TrafficStats.TypeCounter type : TrafficStats.getTypes()) {
+            counters.put(type, new long[]{type.getPackets(), type.getBytes()});
+        }
+    }
+
+    private void renderTop(PrintWriter out, Map<Object, long[]> previous, Map<Object, long[]> current, double seconds) {
+        out.printf("%d players, %d paused forwards, any key to leave%n%n", proxy.getPlayers().size(), Backpressure.getPauses());
+        out.printf("%-20s %10s %10s %10s %10s %10s%n", "PLAYER", "IN PKT/S", "OUT PKT/S", "IN KB/S", "OUT KB/S", "TOTAL MB");
+        List<ProxyPlayerSession> players = new ArrayList<>();
+        for (Object key : current.keySet()) {
+            if (key instanceof ProxyPlayerSession player) {
+                players.add(player);
+            }
+        }
+        players.sort(Comparator.comparing(player -> player.getIdentityData().displayName));
+        for (ProxyPlayerSession player : players) {
+            long[] now = current.get(player);
+            long[] before = previous.getOrDefault(player, new long[now.length]);
+            out.printf("%-20s %10.0f %10.0f %10.1f %10.1f %10.1f%n", player.getIdentityData().displayName,
+                    (now[0] - before[0]) / seconds, (now[1] - before[1]) / seconds,
+                    (now[2] - before[2]) / seconds / 1024, (now[3] - before[3]) / seconds / 1024,
+                    (now[2] + now[3]) / (1024.0 * 1024.0));
+        }
+
+        List<double[]> rates = new ArrayList<>();
+        List<TrafficStats.TypeCounter> types = new ArrayList<>();
+        for (Map.Entry<Object, long[]> entry : current.entrySet()) {
+            if (!(entry.getKey() instanceof TrafficStats.TypeCounter type)) {
+                continue;
+            }
+            long[] now = entry.getValue();
+            long[] before = previous.getOrDefault(type, new long[now.length]);
+            types.add(type);
+            rates.add(new double[]{(now[0] - before[0]) / seconds, (now[1] - before[1]) / seconds, types.size() - 1});
+        }
+        rates.sort(Comparator.comparingDouble((double[] rate) -> rate[1]).reversed());
+
+        out.printf("%n%-40s %-11s %10s %10s%n", "PACKET", "DIRECTION", "PKT/S", "KB/S");
+        for (int i = 0; i < Math.min(TOP_TYPES, rates.size()); i++) {
+            double[] rate = rates.get(i);
+            if (rate[0] == 0) {
+                break;
+            }
+            TrafficStats.TypeCounter type = types.get((int) rate[2]);
+            out.printf("%-40s %-11s %10.0f %10.1f%n", type.getName(), type.isServerbound() ? "serverbound" : "clientbound",
+                    rate[0], rate[1] / 1024);
+        }
+    }
+
+    private void memory(PrintWriter out) {
+        AllocatorStats.describe().forEach(out::println);
+
+        List<ProxyPlayerSession> players = new ArrayList<>(proxy.getPlayers());
+        Map<ProxyPlayerSession, ProxyPlayerSession.MemoryUsage> usages = new HashMap<>();
+        players.forEach(player -> usages.put(player, player.getMemoryUsage()));
+        players.sort(Comparator.comparingLong((ProxyPlayerSession player) -> usages.get(player).total()).reversed());
+
+        out.printf("%n%-20s %12s %12s %12s %12s %12s%n", "PLAYER", "TO CLIENT KB", "TO SERVER KB", "LOG KB", "RECORDER KB", "HEAP KB");
+        long total = 0;
+        long heap = 0;
+        for (ProxyPlayerSession player : players) {
+            ProxyPlayerSession.MemoryUsage usage = usages.get(player);
+            long retainedHeap = player.estimateRetainedHeap();
+            total += usage.total();
+            heap += retainedHeap;
+            out.printf("%-20s %12d %12d %12d %12d %12d%n", player.getIdentityData().displayName, usage.clientQueued() / 1024,
+                    usage.serverQueued() / 1024, usage.logBuffer() / 1024, usage.flightRecorder() / 1024, retainedHeap / 1024);
+        }
+        out.printf("%d KB of buffers and about %d KB of heap held for %d players%n", total / 1024, heap / 1024, players.size());
+        out.println("Send queues count what the proxy holds, frames already handed to RakNet are not included");
+    }
+
+    private void stats(PrintWriter out) {
+        out.printf("Players: %d, downstream channels: %d, logins in progress: %d, rejected: %d%n",
+                proxy.getPlayers().size(), proxy.getClients().size(), proxy.getAdmissionControl().getHandshakes(),
+                proxy.getAdmissionControl().getRejected());
+        out.printf("Paused forwards: %d%n", Backpressure.getPauses());
+
+        StringBuilder loops = new StringBuilder("Event loop pending tasks:");
+        for (EventExecutor executor : proxy.getEventLoopGroup()) {
+            if (executor instanceof SingleThreadEventExecutor loop) {
+                loops.append(' ').append(loop.pendingTasks());
+            }
+        }
+        out.println(loops);
+        proxy.getWatchdog().getLagHistograms().forEach((name, lag) -> out.println("Event loop " + name + " lag: " + lag.summary()));
+
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        if (allocator instanceof ByteBufAllocatorMetricProvider provider) {
+            ByteBufAllocatorMetric metric = provider.metric();
+            out.printf("Allocator: %.1f MB direct, %.1f MB heap%n", metric.usedDirectMemory() / (1024.0 * 1024.0),
+                    metric.usedHeapMemory() / (1024.0 * 1024.0));
+            if (allocator instanceof PooledByteBufAllocator pooled) {
+                out.printf("Pool: %d direct arenas, %d heap arenas, %d thread caches, %d KB chunks%n",
+                        pooled.metric().numDirectArenas(), pooled.metric().numHeapArenas(),
+                        pooled.metric().numThreadLocalCaches(), pooled.metric().chunkSize() / 1024);
+            }
+        }
+
+        ChunkBlobCache blobCache = proxy.getBlobCache();
+        if (blobCache != null) {
+            out.printf("Blob cache: %d blobs, %.1f MB, %d hits, %d misses%n", blobCache.getBlobCount(),
+                    blobCache.getBytes() / (1024.0 * 1024.0), blobCache.getHits(), blobCache.getMisses());
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        out.printf("Heap: %d MB used of %d MB%n", (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024),
+                runtime.maxMemory() / (1024 * 1024));
+    }
+}
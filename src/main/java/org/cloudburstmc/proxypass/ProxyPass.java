@@ -4,6 +4,8 @@ import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.util.ResourceLeakDetector;
@@ -21,15 +23,32 @@ import org.cloudburstmc.protocol.bedrock.data.definitions.BlockDefinition;
 import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
 import org.cloudburstmc.protocol.bedrock.netty.initializer.BedrockChannelInitializer;
 import org.cloudburstmc.protocol.common.DefinitionRegistry;
+import org.cloudburstmc.proxypass.network.bedrock.cache.ChunkBlobCache;
+import org.cloudburstmc.proxypass.network.bedrock.jackson.ByteBufSerializer;
 import org.cloudburstmc.proxypass.network.bedrock.jackson.ColorDeserializer;
 import org.cloudburstmc.proxypass.network.bedrock.jackson.ColorSerializer;
 import org.cloudburstmc.proxypass.network.bedrock.jackson.NbtDefinitionSerializer;
+import org.cloudburstmc.proxypass.network.bedrock.jfr.DumpEvent;
+import org.cloudburstmc.proxypass.network.bedrock.logging.BlobStore;
+import org.cloudburstmc.proxypass.network.bedrock.logging.CaptureQuery;
+import org.cloudburstmc.proxypass.network.bedrock.logging.PacketFilter;
+import org.cloudburstmc.proxypass.network.bedrock.logging.SessionLogger;
+import org.cloudburstmc.proxypass.network.bedrock.routing.Destination;
+import org.cloudburstmc.proxypass.network.bedrock.routing.DestinationRouter;
+import org.cloudburstmc.proxypass.network.bedrock.session.AdmissionControl;
+import org.cloudburstmc.proxypass.network.bedrock.session.JoinTimeline;
 import org.cloudburstmc.proxypass.network.bedrock.session.ProxyClientSession;
+import org.cloudburstmc.proxypass.network.bedrock.session.ProxyPlayerSession;
 import org.cloudburstmc.proxypass.network.bedrock.session.ProxyServerSession;
 import org.cloudburstmc.proxypass.network.bedrock.session.UpstreamPacketHandler;
+import org.cloudburstmc.proxypass.network.bedrock.util.BlockIdFormat;
+import org.cloudburstmc.proxypass.network.bedrock.util.BlockRuntimeIdTranslator;
+import org.cloudburstmc.proxypass.network.bedrock.util.FileUtils;
+import org.cloudburstmc.proxypass.network.bedrock.util.LatencyHistogram;
 import org.cloudburstmc.proxypass.network.bedrock.util.NbtBlockDefinitionRegistry;
 import org.cloudburstmc.proxypass.network.bedrock.util.NbtBlockDefinitionRegistry.NbtBlockDefinition;
 import org.cloudburstmc.proxypass.network.bedrock.util.UnknownBlockDefinitionRegistry;
+import tools.jackson.core.JsonGenerator;
 import tools.jackson.core.Version;
 import tools.jackson.core.type.TypeReference;
 import tools.jackson.core.util.DefaultIndenter;
@@ -37,6 +56,7 @@ import tools.jackson.core.util.DefaultPrettyPrinter;
 import tools.jackson.core.util.Separators;
 import tools.jackson.databind.DeserializationFeature;
 import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.ObjectWriter;
 import tools.jackson.databind.json.JsonMapper;
 import tools.jackson.databind.module.SimpleModule;
 import tools.jackson.dataformat.yaml.YAMLMapper;
@@ -48,9 +68,16 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.nio.file.*;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 
 @Log4j2
 @Getter
@@ -61,27 +88,36 @@ public class ProxyPass {
     private static final SimpleModule MODULE = new SimpleModule("ProxyPass", Version.unknownVersion())
             .addSerializer(Color.class, new ColorSerializer())
             .addDeserializer(Color.class, new ColorDeserializer())
-            .addSerializer(NbtBlockDefinition.class, new NbtDefinitionSerializer());
+            .addSerializer(NbtBlockDefinition.class, new NbtDefinitionSerializer())
+            .addSerializer(ByteBuf.class, new ByteBufSerializer());
 
     public static final String MINECRAFT_VERSION;
 
     public static final BedrockCodec CODEC = Bedrock_v975.CODEC;
     public static final int PROTOCOL_VERSION = CODEC.getProtocolVersion();
 
+    private static final String DEFAULT_MOTD = "ProxyPass";
+    private static final String DEFAULT_SUB_MOTD = "https://github.com/CloudburstMC/ProxyPass";
+    private static final int DEFAULT_MAX_PLAYERS = 20;
+
     private static final BedrockPong ADVERTISEMENT = new BedrockPong()
             .edition("MCPE")
             .gameType("Survival")
             .version(ProxyPass.MINECRAFT_VERSION)
             .protocolVersion(ProxyPass.PROTOCOL_VERSION)
-            .motd("ProxyPass")
+            .motd(DEFAULT_MOTD)
             .playerCount(0)
-            .maximumPlayerCount(20)
-            .subMotd("https://github.com/CloudburstMC/ProxyPass")
+            .maximumPlayerCount(DEFAULT_MAX_PLAYERS)
+            .subMotd(DEFAULT_SUB_MOTD)
             .nintendoLimited(false);
 
     private static final DefaultPrettyPrinter PRETTY_PRINTER;
 
-    public static Map<Integer, String> legacyIdMap = new HashMap<>();
+    public static Map<Integer, String> legacyIdMap = new ConcurrentHashMap<>();
+
+    // Resolving the serializers of a type is not free, reuse the writers across dumps.
+    private static final Map<Class<?>, ObjectWriter> PRETTY_WRITERS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, ObjectWriter> COMPACT_WRITERS = new ConcurrentHashMap<>();
 
     static {
         DefaultIndenter indenter = new DefaultIndenter("    ", "\n");
@@ -108,23 +144,52 @@ public class ProxyPass {
     }
 
     private final AtomicBoolean running = new AtomicBoolean(true);
+    private volatile boolean draining;
+    @Getter(AccessLevel.NONE)
+    private volatile ScheduledFuture<?> drainTask;
 
     private final NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup();
     private final Set<Channel> clients = ConcurrentHashMap.newKeySet();
-    @Getter(AccessLevel.NONE)
-    private final Set<Class<?>> ignoredPackets = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<ProxyPlayerSession> players = ConcurrentHashMap.newKeySet();
     private Channel server;
-    private int maxClients = 0;
-    private InetSocketAddress targetAddress;
+    private DestinationRouter router;
+    private BlockingExecutor blockingExecutor;
+    /**
+     * CPU bound conversion of large dumps, kept apart from the common pool and sized to leave the event loops room.
+     */
+    private final ForkJoinPool conversionPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+            pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("ProxyPass Conversion #" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+    private EventLoopWatchdog watchdog;
+    /**
+     * Null if disabled.
+     */
+    private ChunkBlobCache blobCache;
+    private final AdmissionControl admissionControl = new AdmissionControl(this);
+    @Getter(AccessLevel.NONE)
+    private AdvertisementState advertisementState;
     private InetSocketAddress proxyAddress;
-    private Configuration configuration;
+    private volatile Configuration configuration;
     private Path baseDir;
     private Path sessionsDir;
     private Path dataDir;
+    private BlobStore skinStore;
     private DefinitionRegistry<BlockDefinition> blockDefinitions;
     private DefinitionRegistry<BlockDefinition> blockDefinitionsHashed;
+    @Getter(AccessLevel.NONE)
+    private BlockRuntimeIdTranslator blockIdsToHashed;
+    @Getter(AccessLevel.NONE)
+    private BlockRuntimeIdTranslator blockIdsToSequential;
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("query")) {
+            CaptureQuery.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.DISABLED);
         ProxyPass proxy = new ProxyPass();
         try {
@@ -142,35 +207,47 @@ public class ProxyPass {
         }
 
         configuration = Configuration.load(configPath);
+        ResourceLeakDetector.setLevel(configuration.getLeakDetection().level);
 
         proxyAddress = configuration.getProxy().getAddress();
-        targetAddress = configuration.getDestination().getAddress();
-        maxClients = configuration.getMaxClients();
+        List<InetSocketAddress> destinations = new ArrayList<>();
+        if (configuration.getDestinations().isEmpty()) {
+            destinations.add(configuration.getDestination().getAddress());
+        } else {
+            configuration.getDestinations().forEach(address -> destinations.add(address.getAddress()));
+        }
+        router = new DestinationRouter(destinations, configuration.getLoadBalancing());
 
-        configuration.getIgnoredPackets().forEach(s -> {
-            try {
-                ignoredPackets.add(Class.forName("org.cloudburstmc.protocol.bedrock.packet." + s));
-            } catch (ClassNotFoundException e) {
-                log.warn("No packet with name {}", s);
-            }
-        });
+        blockingExecutor = new BlockingExecutor(configuration.getBlockingThreads());
+        if (configuration.getBlobCacheSize() > 0) {
+            blobCache = new ChunkBlobCache(configuration.getBlobCacheSize() * 1024L * 1024L);
+        }
+
+        new ConfigurationWatcher(this, configPath).start();
 
         baseDir = Paths.get(".").toAbsolutePath();
         sessionsDir = baseDir.resolve("sessions");
         dataDir = baseDir.resolve("data");
         Files.createDirectories(sessionsDir);
         Files.createDirectories(dataDir);
+        skinStore = new BlobStore(baseDir.resolve("skins"));
 
         // Load block palette, if it exists
         Object object = this.loadGzipNBT("block_palette.nbt");
 
         if (object instanceof NbtMap map) {
-            this.blockDefinitions = new NbtBlockDefinitionRegistry(map.getList("blocks", NbtType.COMPOUND), false);
-            this.blockDefinitionsHashed = new NbtBlockDefinitionRegistry(map.getList("blocks", NbtType.COMPOUND), true);
+            List<NbtMap> palette = map.getList("blocks", NbtType.COMPOUND);
+            this.blockDefinitions = new NbtBlockDefinitionRegistry(palette, false);
+            this.blockDefinitionsHashed = new NbtBlockDefinitionRegistry(palette, true);
+            this.blockIdsToHashed = BlockRuntimeIdTranslator.create(palette, true, this.blockDefinitionsHashed);
+            this.blockIdsToSequential = BlockRuntimeIdTranslator.create(palette, false, this.blockDefinitions);
         } else {
             this.blockDefinitions = this.blockDefinitionsHashed = new UnknownBlockDefinitionRegistry();
             log.warn("Failed to load block palette. Blocks will appear as runtime IDs in packet traces and creative_content.json!");
         }
+        if (configuration.getClientBlockIds() != BlockIdFormat.SERVER) {
+            warnBlockIdTranslation();
+        }
 
         log.info("Loading server...");
         ADVERTISEMENT.ipv4Port(this.proxyAddress.getPort())
@@ -188,6 +265,7 @@ public class ProxyPass {
 
                     @Override
                     protected void initSession(ProxyServerSession session) {
+                        session.setHandshake(admissionControl.tryAdmit(session.getSocketAddress()));
                         session.setPacketHandler(new UpstreamPacketHandler(session, ProxyPass.this));
                     }
                 })
@@ -196,12 +274,37 @@ public class ProxyPass {
                 .channel();
         log.info("Bedrock server {} ({}) started on {}", ProxyPass.CODEC.getMinecraftVersion(), ProxyPass.CODEC.getProtocolVersion(), proxyAddress);
 
+        // Pings are answered from the cached buffer, it is only re-encoded when something changed.
+        this.server.eventLoop().scheduleAtFixedRate(this::updateAdvertisement, 0, 1, TimeUnit.SECONDS);
+
+        this.eventLoopGroup.scheduleAtFixedRate(this::checkSessionLeaks, 1, 1, TimeUnit.MINUTES);
+        this.eventLoopGroup.scheduleAtFixedRate(this.admissionControl::cleanup, 1, 1, TimeUnit.MINUTES);
+
+        if (router.getDestinations().size() > 1) {
+            log.info("Balancing clients across {} destinations using {}", router.getDestinations().size(), configuration.getLoadBalancing());
+        }
+        // With a single destination the pongs are only needed to relay the MOTD.
+        if (configuration.getHealthCheckInterval() > 0 && (router.getDestinations().size() > 1 || configuration.isRelayMotd())) {
+            router.startHealthChecks(this.eventLoopGroup, TimeUnit.SECONDS.toMillis(configuration.getHealthCheckInterval()));
+        }
+
+        this.watchdog = new EventLoopWatchdog(this, this.eventLoopGroup);
+        this.watchdog.start();
+
+        if (configuration.isConsole()) {
+            new ProxyConsole(this).start();
+        }
+
         loop();
     }
 
-    public void newClient(InetSocketAddress socketAddress, Consumer<ProxyClientSession> sessionConsumer) {
-        Channel channel = new Bootstrap()
-                .group(this.eventLoopGroup)
+    /**
+     * Connects to a destination on the given event loop. Passing the upstream channel's loop keeps all forwarding
+     * for a player on one thread. This does not wait for the connection, as it is usually called from that loop.
+     */
+    public ChannelFuture newClient(EventLoop eventLoop, Destination destination, Consumer<ProxyClientSession> sessionConsumer) {
+        ChannelFuture future = new Bootstrap()
+                .group(eventLoop)
                 .channelFactory(RakChannelFactory.client(NioDatagramChannel.class))
                 .option(RakChannelOption.RAK_PROTOCOL_VERSION, ProxyPass.CODEC.getRaknetProtocolVersion())
                 .handler(new BedrockChannelInitializer<ProxyClientSession>() {
@@ -216,11 +319,62 @@ public class ProxyPass {
                         sessionConsumer.accept(session);
                     }
                 })
-                .connect(socketAddress)
-                .awaitUninterruptibly()
-                .channel();
+                .connect(destination.getAddress());
 
+        Channel channel = future.channel();
+        this.router.track(destination, channel);
         this.clients.add(channel);
+        channel.closeFuture().addListener(closeFuture -> this.clients.remove(channel));
+        return future;
+    }
+
+    private void updateAdvertisement() {
+        Configuration configuration = this.configuration;
+        int playerCount = this.players.size();
+        int maxClients = configuration.getMaxClients();
+        // Without a limit, always show a free slot so clients don't think we are full.
+        int maximumPlayerCount = maxClients > 0 ? maxClients : Math.max(DEFAULT_MAX_PLAYERS, playerCount + 1);
+
+        String motd = DEFAULT_MOTD;
+        String subMotd = DEFAULT_SUB_MOTD;
+        if (configuration.isRelayMotd()) {
+            BedrockPong pong = this.router.getRelayPong();
+            if (pong != null) {
+                motd = pong.motd();
+                subMotd = pong.subMotd();
+            }
+        }
+
+        AdvertisementState state = new AdvertisementState(playerCount, maximumPlayerCount, motd, subMotd);
+        if (state.equals(this.advertisementState)) {
+            return;
+        }
+        this.advertisementState = state;
+
+        ADVERTISEMENT.playerCount(playerCount)
+                .maximumPlayerCount(maximumPlayerCount)
+                .motd(motd)
+                .subMotd(subMotd);
+        this.server.config().setOption(RakChannelOption.RAK_ADVERTISEMENT, ADVERTISEMENT.toByteBuf());
+    }
+
+    private void checkSessionLeaks() {
+        int players = this.players.size();
+        int flushTasks = SessionLogger.getActiveFlushTasks();
+        int clients = this.clients.size();
+        if (flushTasks > players) {
+            log.warn("Possible session leak: {} live sessions, {} log flush tasks, {} downstream channels", players, flushTasks, clients);
+        } else {
+            log.debug("{} live sessions, {} log flush tasks, {} downstream channels", players, flushTasks, clients);
+        }
+        if (log.isDebugEnabled() && players > 0) {
+            long heap = this.players.stream().mapToLong(ProxyPlayerSession::estimateRetainedHeap).sum();
+            log.debug("Sessions retain about {} KB of heap, {} KB per session", heap / 1024, heap / 1024 / players);
+        }
+        LatencyHistogram joins = JoinTimeline.getHistograms().get(JoinTimeline.Phase.TOTAL);
+        if (joins.getCount() > 0) {
+            log.debug("Join time: {}", joins.summary());
+        }
     }
 
     private void loop() {
@@ -236,8 +390,32 @@ public class ProxyPass {
         }
 
         // Shutdown
+        this.watchdog.stop();
+        this.router.stop();
         this.clients.forEach(Channel::disconnect);
         this.server.disconnect();
+        this.conversionPool.shutdown();
+        this.blockingExecutor.shutdown();
+        if (this.blobCache != null) {
+            this.blobCache.clear();
+        }
+    }
+
+    /**
+     * Stops admitting new players and shuts down once the connected ones have left.
+     */
+    public void drain() {
+        if (this.draining) {
+            return;
+        }
+        this.draining = true;
+        log.info("Draining, shutting down once {} players have left", this.players.size());
+        this.drainTask = this.eventLoopGroup.scheduleAtFixedRate(() -> {
+            if (this.players.isEmpty()) {
+                this.drainTask.cancel(false);
+                shutdown();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
     }
 
     public void shutdown() {
@@ -248,24 +426,42 @@ public class ProxyPass {
         }
     }
 
+    // The save methods below write on the blocking executor, so the data passed to them must not be modified after.
+
+    /**
+     * Runs a task writing the given file off the event loop.
+     */
+    private CompletableFuture<Void> dump(Path path, Runnable task) {
+        return blockingExecutor.execute(path, () -> {
+            DumpEvent event = new DumpEvent();
+            event.begin();
+            task.run();
+            event.finish(path);
+        });
+    }
+
     public void saveCompressedNBT(String dataName, Object dataTag) {
         Path path = dataDir.resolve(dataName + ".nbt");
-        try (OutputStream outputStream = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-             NBTOutputStream nbtOutputStream = NbtUtils.createGZIPWriter(outputStream)) {
-            nbtOutputStream.writeTag(dataTag);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        dump(path, () -> {
+            try (OutputStream outputStream = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                 NBTOutputStream nbtOutputStream = NbtUtils.createGZIPWriter(outputStream)) {
+                nbtOutputStream.writeTag(dataTag);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
     }
 
     public void saveNBT(String dataName, Object dataTag) {
         Path path = dataDir.resolve(dataName + ".dat");
-        try (OutputStream outputStream = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-             NBTOutputStream nbtOutputStream = NbtUtils.createNetworkWriter(outputStream)) {
-            nbtOutputStream.writeTag(dataTag);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        dump(path, () -> {
+            try (OutputStream outputStream = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                 NBTOutputStream nbtOutputStream = NbtUtils.createNetworkWriter(outputStream)) {
+                nbtOutputStream.writeTag(dataTag);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
     }
 
     public Object loadNBT(String dataName) {
@@ -288,18 +484,52 @@ public class ProxyPass {
         }
     }
 
+    /**
+     * Streams the object to a file in the data folder, pretty printed unless compact-json is set. Never compressed,
+     * other tools load these files by name.
+     */
     public void saveJson(String name, Object object) {
+        ObjectWriter writer = getJsonWriter(object.getClass(), this.configuration.isCompactJson());
+        writeJson(name, stream -> writer.writeValue(stream, object));
+    }
+
+    /**
+     * Like {@link #saveJson(String, Object)}, but the content is written piece by piece through a generator, so a
+     * large dump never has to be held in memory as a whole.
+     *
+     * @return completes once the file is written
+     */
+    public CompletableFuture<Void> streamJson(String name, Consumer<JsonGenerator> content) {
+        ObjectWriter writer = getJsonWriter(Object.class, this.configuration.isCompactJson());
+        return writeJson(name, stream -> {
+            try (JsonGenerator generator = writer.createGenerator(stream)) {
+                content.accept(generator);
+            }
+        });
+    }
+
+    private CompletableFuture<Void> writeJson(String name, FileUtils.Writer content) {
         Path outPath = dataDir.resolve(name);
-        try (OutputStream outputStream = Files.newOutputStream(outPath, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE)) {
-            ProxyPass.JSON_MAPPER.writerWithDefaultPrettyPrinter().writeValue(outputStream, object);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        return dump(outPath, () -> {
+            try {
+                FileUtils.writeAtomically(outPath, content);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private static ObjectWriter getJsonWriter(Class<?> type, boolean compact) {
+        if (compact) {
+            return COMPACT_WRITERS.computeIfAbsent(type, JSON_MAPPER::writerFor);
         }
+        return PRETTY_WRITERS.computeIfAbsent(type, key -> JSON_MAPPER.writerFor(key).withDefaultPrettyPrinter());
     }
 
     public <T> T loadJson(String name, TypeReference<T> reference) {
         Path path = dataDir.resolve(name);
-        try (InputStream inputStream = Files.newInputStream(path, StandardOpenOption.READ)) {
+        try (InputStream fileStream = Files.newInputStream(path, StandardOpenOption.READ);
+             InputStream inputStream = name.endsWith(".gz") ? new GZIPInputStream(fileStream) : fileStream) {
             return ProxyPass.JSON_MAPPER.readValue(inputStream, reference);
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -308,11 +538,13 @@ public class ProxyPass {
 
     public void saveMojangson(String name, NbtMap nbt) {
         Path outPath = dataDir.resolve(name);
-        try {
-            Files.writeString(outPath, nbt.toString(), StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        dump(outPath, () -> {
+            try {
+                Files.writeString(outPath, nbt.toString(), StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
     }
 
     public void savePacket(BedrockPacketWrapper wrapper) {
@@ -326,25 +558,83 @@ public class ProxyPass {
         buffer.writeBytes(packetBuf); // packet data
 
         Path outPath = dataDir.resolve(name);
-        try (OutputStream outputStream = Files.newOutputStream(outPath, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE)) {
-            byte[] bytes = new byte[1024 * 8];
-            while (buffer.isReadable()) {
-                int read = Math.min(buffer.readableBytes(), bytes.length);
-                buffer.readBytes(bytes, 0, read);
-                outputStream.write(bytes, 0, read);
+        dump(outPath, () -> {
+            try (OutputStream outputStream = Files.newOutputStream(outPath, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE)) {
+                byte[] bytes = new byte[1024 * 8];
+                while (buffer.isReadable()) {
+                    int read = Math.min(buffer.readableBytes(), bytes.length);
+                    buffer.readBytes(bytes, 0, read);
+                    outputStream.write(bytes, 0, read);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                buffer.release();
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        } finally {
-            buffer.release();
+        });
+    }
+
+    /**
+     * Swaps in a freshly loaded configuration. Settings that are read per packet or per session take effect
+     * immediately, the bind and destination addresses only change on restart.
+     */
+    public void reloadConfiguration(Configuration configuration) {
+        Configuration current = this.configuration;
+        if (!current.getProxy().equals(configuration.getProxy()) || !Objects.equals(current.getDestination(), configuration.getDestination())
+                || !current.getDestinations().equals(configuration.getDestinations()) || current.getLoadBalancing() != configuration.getLoadBalancing()
+                || current.getHealthCheckInterval() != configuration.getHealthCheckInterval()
+                || current.getBlobCacheSize() != configuration.getBlobCacheSize()) {
+            log.warn("Changes to proxy, destinations, load-balancing, health-check-interval or blob-cache-size require a restart to take effect");
+        }
+        if (router.getDestinations().size() == 1 && current.isRelayMotd() != configuration.isRelayMotd()) {
+            log.warn("Changes to relay-motd require a restart to take effect with a single destination");
+        }
+        if (current.getClientBlockIds() != configuration.getClientBlockIds() && configuration.getClientBlockIds() != BlockIdFormat.SERVER) {
+            warnBlockIdTranslation();
         }
+        if (current.getLeakDetection() != configuration.getLeakDetection()) {
+            ResourceLeakDetector.setLevel(configuration.getLeakDetection().level);
+            log.info("Leak detection set to {}, applies to buffers allocated from now on", configuration.getLeakDetection());
+        }
+        if (current.getLogFormat() != configuration.getLogFormat()) {
+            log.info("log-format change only applies to new sessions");
+        }
+        this.configuration = configuration;
+        log.info("Configuration reloaded");
+    }
+
+    private static void warnBlockIdTranslation() {
+        log.warn("client-block-ids is experimental, only chunks and block updates are translated. Items, entity data, "
+                + "level events and serverbound packets keep the server's block IDs.");
+    }
+
+    public PacketFilter getPacketFilter() {
+        return this.configuration.getPacketFilter();
     }
 
-    public boolean isIgnoredPacket(Class<?> clazz) {
-        return this.ignoredPackets.contains(clazz);
+    public boolean isIgnoredPacket(int packetId, boolean upstream) {
+        return this.getPacketFilter().isIgnored(packetId, upstream);
+    }
+
+    /**
+     * @return translator from the server's block runtime IDs to the client's, null if no block palette is loaded
+     */
+    public BlockRuntimeIdTranslator getBlockIdTranslator(boolean toHashed) {
+        return toHashed ? blockIdsToHashed : blockIdsToSequential;
+    }
+
+    /**
+     * Saves the flight recordings of every connected player, for when an operator notices a problem.
+     */
+    public void dumpFlightRecorders() {
+        this.players.forEach(player -> player.dumpFlightRecorder("manual"));
     }
 
     public boolean isFull() {
+        int maxClients = this.configuration.getMaxClients();
         return maxClients > 0 && this.clients.size() >= maxClients;
     }
+
+    private record AdvertisementState(int playerCount, int maximumPlayerCount, String motd, String subMotd) {
+    }
 }
@@ -0,0 +1,99 @@
+package org.cloudburstmc.proxypass.network.bedrock.cache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chunk blobs seen in ClientCacheMissResponse packets, shared by all sessions. Blob IDs are hashes of the blob
+ * contents, so a blob sent to one player can be handed to any other player asking for the same ID.
+ * <p>
+ * Blobs are kept off heap and the least recently used ones are dropped once the size limit is reached.
+ */
+public class ChunkBlobCache {
+    private final long maxBytes;
+    private final LinkedHashMap<Long, ByteBuf> blobs = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ChunkBlobCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Stores a copy of the blob, the given buffer is not modified.
+     */
+    public void put(long blobId, ByteBuf blob) {
+        int size = blob.readableBytes();
+        if (size > maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            if (blobs.containsKey(blobId)) {
+                return;
+            }
+            ByteBuf copy = ByteBufAllocator.DEFAULT.directBuffer(size, size);
+            copy.writeBytes(blob, blob.readerIndex(), size);
+            blobs.put(blobId, copy);
+            bytes += size;
+            evict();
+        }
+    }
+
+    /**
+     * @return the blob which must be released by the caller, null if it is not cached
+     */
+    public ByteBuf get(long blobId) {
+        ByteBuf blob;
+        synchronized (this) {
+            blob = blobs.get(blobId);
+            // Retained while locked, an eviction afterwards only drops the cache's own reference.
+            if (blob != null) {
+                blob = blob.retainedDuplicate();
+            }
+        }
+        if (blob != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return blob;
+    }
+
+    private void evict() {
+        Iterator<ByteBuf> iterator = blobs.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            ByteBuf blob = iterator.next();
+            bytes -= blob.readableBytes();
+            iterator.remove();
+            blob.release();
+        }
+    }
+
+    public synchronized void clear() {
+        blobs.values().forEach(ByteBuf::release);
+        blobs.clear();
+        bytes = 0;
+    }
+
+    public synchronized int getBlobCount() {
+        return blobs.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
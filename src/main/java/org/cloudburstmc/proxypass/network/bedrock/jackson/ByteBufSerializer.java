@@ -0,0 +1,25 @@
+package org.cloudburstmc.proxypass.network.bedrock.jackson;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.databind.SerializationContext;
+import tools.jackson.databind.ser.std.StdSerializer;
+
+public class ByteBufSerializer extends StdSerializer<ByteBuf> {
+
+    public ByteBufSerializer() {
+        super(ByteBuf.class);
+    }
+
+    @Override
+    public void serialize(ByteBuf value, JsonGenerator gen, SerializationContext provider) throws JacksonException {
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            // Does not move the reader index, the buffer may still be forwarded after logging.
+            gen.writeBinary(ByteBufUtil.getBytes(value));
+        }
+    }
+}
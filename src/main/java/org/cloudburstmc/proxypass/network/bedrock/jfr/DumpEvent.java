@@ -0,0 +1,48 @@
+package org.cloudburstmc.proxypass.network.bedrock.jfr;
+
+import jdk.jfr.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Conversion or writing of a data dump such as creative_items.json or the recipe files.
+ */
+@Name("org.cloudburstmc.proxypass.Dump")
+@Label("Dump")
+@Category({"ProxyPass", "Dumps"})
+@StackTrace(false)
+public class DumpEvent extends Event {
+    @Label("Name")
+    public String name;
+
+    @Label("Size")
+    @Description("Bytes written, 0 if the dump only converts data for other dumps")
+    @DataAmount
+    public long size;
+
+    /**
+     * Ends the event, taking the size from the file if it gets recorded.
+     */
+    public void finish(Path path) {
+        end();
+        if (shouldCommit()) {
+            this.name = path.getFileName().toString();
+            try {
+                this.size = Files.size(path);
+            } catch (IOException e) {
+                this.size = 0;
+            }
+            commit();
+        }
+    }
+
+    public void finish(String name) {
+        end();
+        if (shouldCommit()) {
+            this.name = name;
+            commit();
+        }
+    }
+}
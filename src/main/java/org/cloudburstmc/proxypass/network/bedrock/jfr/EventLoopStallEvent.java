@@ -0,0 +1,26 @@
+package org.cloudburstmc.proxypass.network.bedrock.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * An event loop that did not run a probe task for longer than the configured stall threshold.
+ */
+@Name("org.cloudburstmc.proxypass.EventLoopStall")
+@Label("Event Loop Stall")
+@Category({"ProxyPass", "Event Loops"})
+@StackTrace(false)
+public class EventLoopStallEvent extends Event {
+    @Label("Event Loop")
+    public String eventLoop;
+
+    @Label("Stalled For")
+    @Timespan(Timespan.MILLISECONDS)
+    public long stalledMillis;
+
+    @Label("Packet Type")
+    @Description("Packet being handled when the stall was detected, if any")
+    public String packetType;
+
+    @Label("Session")
+    public String session;
+}
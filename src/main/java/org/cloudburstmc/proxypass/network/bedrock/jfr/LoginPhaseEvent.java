@@ -0,0 +1,32 @@
+package org.cloudburstmc.proxypass.network.bedrock.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * One step of a player joining through the proxy, for example validating the login or connecting to the
+ * destination.
+ */
+@Name("org.cloudburstmc.proxypass.LoginPhase")
+@Label("Login Phase")
+@Category({"ProxyPass", "Login"})
+@StackTrace(false)
+public class LoginPhaseEvent extends Event {
+    @Label("Phase")
+    public String phase;
+
+    @Label("Session")
+    public String session;
+
+    @Label("Succeeded")
+    public boolean success;
+
+    public void finish(String phase, String session, boolean success) {
+        end();
+        if (shouldCommit()) {
+            this.phase = phase;
+            this.session = session;
+            this.success = success;
+            commit();
+        }
+    }
+}
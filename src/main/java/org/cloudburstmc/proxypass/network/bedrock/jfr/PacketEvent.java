@@ -0,0 +1,35 @@
+package org.cloudburstmc.proxypass.network.bedrock.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Time spent logging, handling and forwarding one packet on the event loop. Only packets slower than the
+ * threshold are recorded, lower it to see every packet.
+ */
+@Name("org.cloudburstmc.proxypass.Packet")
+@Label("Packet")
+@Category({"ProxyPass", "Packets"})
+@Description("Handling of a packet received from the client or the server")
+@StackTrace(false)
+@Threshold("5 ms")
+public class PacketEvent extends Event {
+    @Label("Packet ID")
+    public int packetId;
+
+    @Label("Packet Type")
+    public String packetType;
+
+    @Label("Size")
+    @DataAmount
+    public int size;
+
+    @Label("Serverbound")
+    public boolean serverbound;
+
+    @Label("Handled")
+    @Description("Whether a handler consumed the packet instead of it being forwarded as is")
+    public boolean handled;
+
+    @Label("Session")
+    public String session;
+}
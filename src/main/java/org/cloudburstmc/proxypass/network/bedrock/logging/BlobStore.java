@@ -0,0 +1,65 @@
+package org.cloudburstmc.proxypass.network.bedrock.logging;
+
+import org.cloudburstmc.proxypass.network.bedrock.util.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content addressed storage for data that is identical across many sessions, such as skins. Blobs are named after
+ * the SHA-256 of their source bytes, so the same content is only encoded and written once.
+ */
+public class BlobStore {
+    private final Path directory;
+    private final Map<String, CompletableFuture<Path>> blobs = new ConcurrentHashMap<>();
+
+    public BlobStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param content   bytes identifying the blob, usually the decoded data before it is encoded by the writer
+     * @param extension file extension of the blob
+     * @param writer    only called when no blob for this content exists yet
+     * @return path of the blob
+     */
+    public Path store(byte[] content, String extension, FileUtils.Writer writer) {
+        String name = hash(content) + '.' + extension;
+        Path path = directory.resolve(name);
+
+        // Sessions storing the same blob at the same time wait for the first one instead of writing it again.
+        CompletableFuture<Path> created = new CompletableFuture<>();
+        CompletableFuture<Path> existing = blobs.putIfAbsent(name, created);
+        if (existing != null) {
+            return existing.join();
+        }
+
+        try {
+            if (Files.notExists(path)) {
+                FileUtils.writeAtomically(path, writer);
+            }
+            created.complete(path);
+        } catch (IOException | RuntimeException e) {
+            // Otherwise sessions waiting on this blob would never wake up.
+            blobs.remove(name, created);
+            created.completeExceptionally(e);
+            throw e instanceof RuntimeException runtime ? runtime : new RuntimeException(e);
+        }
+        return path;
+    }
+
+    private static String hash(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is always available", e);
+        }
+    }
+}
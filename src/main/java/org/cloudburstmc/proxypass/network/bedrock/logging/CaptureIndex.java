@@ -0,0 +1,145 @@
+package org.cloudburstmc.proxypass.network.bedrock.logging;
+
+import org.cloudburstmc.proxypass.ProxyPass;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.JsonNode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sidecar index of a packet capture, appended to every time the capture is flushed. For every packet type,
+ * direction and time bucket it records how many packets were logged and the byte range of the capture holding
+ * them. Lets {@link CaptureQuery} count packets without reading the capture, and read only the ranges it needs
+ * otherwise.
+ * <p>
+ * The file holds one JSON object per line: a header with the format version first, then the segments of each
+ * flush followed by a marker with the capture size the flush ended at. Only the segments since the last flush
+ * are kept in memory.
+ */
+public class CaptureIndex {
+    public static final String SUFFIX = ".index.jsonl";
+    public static final int VERSION = 2;
+    public static final long BUCKET_MILLIS = 10_000;
+
+    private final Map<Key, Segment> pending = new LinkedHashMap<>();
+
+    public static Path pathFor(Path capture) {
+        return capture.resolveSibling(capture.getFileName() + SUFFIX);
+    }
+
+    /**
+     * @param type  packet class name
+     * @param start position of the record in the capture file
+     * @param end   position just after the record
+     */
+    public synchronized void add(String type, boolean serverbound, long time, long start, long end) {
+        long bucket = time - time % BUCKET_MILLIS;
+        pending.merge(new Key(bucket, type, serverbound), new Segment(bucket, type, serverbound, 1, start, end),
+                (segment, added) -> new Segment(bucket, type, serverbound, segment.count() + 1, segment.start(), end));
+    }
+
+    public synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * @return rough amount of heap used by segments that have not been appended yet
+     */
+    public synchronized long estimateSize() {
+        return pending.size() * 128L;
+    }
+
+    /**
+     * Appends the segments added since the last call, followed by the size the capture has been written up to.
+     */
+    public synchronized void append(Path path, long captureEnd) throws IOException {
+        boolean created = !Files.exists(path);
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND)) {
+            if (created) {
+                writeLine(writer, Map.of("version", VERSION, "bucketMillis", BUCKET_MILLIS));
+            }
+            for (Segment segment : pending.values()) {
+                writeLine(writer, segment);
+            }
+            writeLine(writer, Map.of("end", captureEnd));
+        }
+        pending.clear();
+    }
+
+    private static void writeLine(BufferedWriter writer, Object value) throws IOException {
+        writer.write(ProxyPass.JSON_MAPPER.writeValueAsString(value));
+        writer.write('\n');
+    }
+
+    /**
+     * Reads an index. Segments after the last end marker belong to a flush that did not finish and are left out,
+     * as is a line cut short by a crash.
+     *
+     * @throws IOException if the file can't be read or has a different format version
+     */
+    public static Contents read(Path path) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        List<Segment> unfinished = new ArrayList<>();
+        long end = 0;
+        long bucketMillis;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            Iterator<String> lines = reader.lines().iterator();
+            JsonNode header = lines.hasNext() ? ProxyPass.JSON_MAPPER.readTree(lines.next()) : null;
+            if (header == null || header.path("version").asInt(0) != VERSION) {
+                throw new IOException("Unsupported capture index " + path);
+            }
+            bucketMillis = header.path("bucketMillis").asLong(BUCKET_MILLIS);
+            while (lines.hasNext()) {
+                String line = lines.next();
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode node;
+                try {
+                    node = ProxyPass.JSON_MAPPER.readTree(line);
+                } catch (JacksonException e) {
+                    break;
+                }
+                if (node.has("end")) {
+                    end = node.get("end").asLong(0);
+                    segments.addAll(unfinished);
+                    unfinished.clear();
+                } else {
+                    unfinished.add(ProxyPass.JSON_MAPPER.treeToValue(node, Segment.class));
+                }
+            }
+        }
+        return new Contents(segments, end, bucketMillis);
+    }
+
+    private record Key(long bucket, String type, boolean serverbound) {
+    }
+
+    /**
+     * Packets of one type and direction logged in one time bucket during one flush.
+     *
+     * @param bucket start of the time bucket in epoch milliseconds
+     * @param start  capture position of the first of these packets
+     * @param end    capture position just after the last of them, packets of other types may lie in between
+     */
+    public record Segment(long bucket, String type, boolean serverbound, long count, long start, long end) {
+    }
+
+    /**
+     * @param end capture size covered by the segments, anything after it was written without being indexed
+     */
+    public record Contents(List<Segment> segments, long end, long bucketMillis) {
+    }
+}
@@ -0,0 +1,391 @@
+package org.cloudburstmc.proxypass.network.bedrock.logging;
+
+import org.cloudburstmc.proxypass.network.bedrock.util.LogFormat;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Searches the packet captures of many sessions at once. Run with {@code java -jar ProxyPass.jar query [options]}.
+ * <p>
+ * Sessions with a {@link CaptureIndex} are answered from its per-bucket counts where possible, and only the byte
+ * ranges it points at are read otherwise. Sessions without a usable index are scanned in full through a memory
+ * mapping of the capture.
+ */
+public class CaptureQuery {
+    private static final long MAP_CHUNK = 256L * 1024 * 1024;
+    // Enough to hold the time, direction and type at the start of a record.
+    private static final int PREFIX_LENGTH = 256;
+    private static final DateTimeFormatter TEXT_TIME = DateTimeFormatter.ofPattern("HH:mm:ss:SSS");
+
+    private Path sessionsDir = Paths.get("sessions");
+    private String type;
+    private Boolean serverbound;
+    private String player;
+    private long fromMillis = Long.MIN_VALUE;
+    private long toMillis = Long.MAX_VALUE;
+    private boolean print;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public static void main(String[] args) {
+        CaptureQuery query = new CaptureQuery();
+        try {
+            query.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            return;
+        }
+        query.run();
+    }
+
+    private static void printUsage() {
+        System.err.println("""
+                Usage: query [options]
+                  --sessions <dir>      folder holding the session captures (default: sessions)
+                  --type <name>         packet class or type name, e.g. LevelChunkPacket or LEVEL_CHUNK
+                  --direction <dir>     serverbound or clientbound
+                  --player <name>       only sessions of this player
+                  --from <seconds>      only packets at least this long after the session started
+                  --to <seconds>        only packets at most this long after the session started
+                  --print               print the matching packets, not just their count
+                  --threads <count>     sessions searched at the same time""");
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--print")) {
+                print = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--sessions" -> sessionsDir = Paths.get(value);
+                case "--type" -> type = normalizeType(value);
+                case "--direction" -> serverbound = switch (value.toLowerCase(Locale.ROOT)) {
+                    case "serverbound" -> true;
+                    case "clientbound" -> false;
+                    default -> throw new IllegalArgumentException("Unknown direction " + value);
+                };
+                case "--player" -> player = value;
+                case "--from" -> fromMillis = (long) (Double.parseDouble(value) * 1000);
+                case "--to" -> toMillis = (long) (Double.parseDouble(value) * 1000);
+                case "--threads" -> threads = Math.max(1, Integer.parseInt(value));
+                default -> throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+    }
+
+    private void run() {
+        List<Path> sessions;
+        try (Stream<Path> stream = Files.list(sessionsDir)) {
+            sessions = stream.filter(Files::isDirectory)
+                    .filter(dir -> player == null || dir.getFileName().toString().startsWith(player + '-'))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            System.err.println("Unable to list " + sessionsDir + ": " + e);
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Result> results;
+        try {
+            results = pool.submit(() -> sessions.parallelStream()
+                    .map(this::query)
+                    .filter(result -> result != null && result.matches() > 0)
+                    .toList()).join();
+        } finally {
+            pool.shutdown();
+        }
+
+        long total = 0;
+        for (Result result : results.stream().sorted(Comparator.comparing(result -> result.session().toString())).toList()) {
+            total += result.matches();
+            System.out.println(result.session().getFileName() + ": " + result.matches() + (result.indexed() ? "" : " (no index, scanned)"));
+            result.lines().forEach(line -> System.out.println("  " + line));
+        }
+        System.out.printf("%d matches in %d of %d sessions, %d ms%n", total, results.size(), sessions.size(),
+                (System.nanoTime() - startTime) / 1_000_000);
+    }
+
+    private Result query(Path session) {
+        Path capture = null;
+        for (LogFormat format : LogFormat.values()) {
+            Path path = session.resolve(format.fileName);
+            if (Files.isRegularFile(path)) {
+                capture = path;
+                break;
+            }
+        }
+        if (capture == null) {
+            return null;
+        }
+
+        long sessionStart = getSessionStart(session);
+        try (FileChannel channel = FileChannel.open(capture, StandardOpenOption.READ)) {
+            Scan scan = new Scan(capture, sessionStart);
+            CaptureIndex.Contents contents = readIndex(capture);
+            if (contents == null) {
+                scan.range(channel, 0, channel.size(), null, CaptureIndex.BUCKET_MILLIS);
+                return new Result(session, scan.matches, scan.lines, false);
+            }
+            return queryIndex(session, channel, contents, scan);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Unable to search " + session + ": " + e);
+            return null;
+        }
+    }
+
+    private static CaptureIndex.Contents readIndex(Path capture) {
+        Path indexPath = CaptureIndex.pathFor(capture);
+        if (!Files.isRegularFile(indexPath)) {
+            return null;
+        }
+        try {
+            return CaptureIndex.read(indexPath);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring capture index " + indexPath + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Counts segments lying entirely inside the time window from the index alone. Segments only partly inside it,
+     * or all of them when printing, are read back from their byte ranges, as is the tail written after the last
+     * index flush.
+     */
+    private Result queryIndex(Path session, FileChannel channel, CaptureIndex.Contents contents, Scan scan) throws IOException {
+        long matches = 0;
+        Set<Key> scannedKeys = new HashSet<>();
+        List<long[]> ranges = new ArrayList<>();
+        for (CaptureIndex.Segment segment : contents.segments()) {
+            String segmentType = normalizeType(segment.type());
+            if (type != null && !segmentType.equals(type)) {
+                continue;
+            }
+            if (serverbound != null && serverbound != segment.serverbound()) {
+                continue;
+            }
+            long first = segment.bucket() - scan.sessionStart;
+            long last = first + contents.bucketMillis() - 1;
+            if (last < fromMillis || first > toMillis) {
+                continue;
+            }
+            if (!print && first >= fromMillis && last <= toMillis) {
+                matches += segment.count();
+            } else {
+                scannedKeys.add(new Key(segment.bucket(), segmentType, segment.serverbound()));
+                ranges.add(new long[]{segment.start(), segment.end()});
+            }
+        }
+
+        // Segments of different types interleave, merge their ranges so no line is read twice.
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        long[] current = null;
+        for (long[] range : ranges) {
+            if (current != null && range[0] <= current[1]) {
+                current[1] = Math.max(current[1], range[1]);
+                continue;
+            }
+            if (current != null) {
+                scan.range(channel, current[0], current[1], scannedKeys, contents.bucketMillis());
+            }
+            current = range;
+        }
+        if (current != null) {
+            scan.range(channel, current[0], current[1], scannedKeys, contents.bucketMillis());
+        }
+        scan.range(channel, contents.end(), channel.size(), null, contents.bucketMillis());
+        return new Result(session, matches + scan.matches, scan.lines, true);
+    }
+
+    /**
+     * @return type, direction and time of a record, null if it can't be parsed
+     */
+    private static Line parse(MappedByteBuffer map, int start, int end, boolean json, LocalDate startDate, long sessionStart) {
+        String prefix = decode(map, start, Math.min(end, start + PREFIX_LENGTH));
+        String lineType;
+        boolean lineServerbound;
+        long time;
+        if (json) {
+            lineType = jsonString(prefix, "\"type\":\"");
+            lineServerbound = "serverbound".equals(jsonString(prefix, "\"direction\":\""));
+            String timeValue = jsonNumber(prefix, "\"time\":");
+            time = timeValue == null ? sessionStart : Long.parseLong(timeValue);
+        } else {
+            // [HH:mm:ss:SSS] [SERVER BOUND] - TypePacket(...)
+            int typeStart = prefix.indexOf(" - ");
+            if (!prefix.startsWith("[") || typeStart < 0) {
+                return null;
+            }
+            int typeEnd = prefix.indexOf('(', typeStart);
+            lineType = prefix.substring(typeStart + 3, typeEnd < 0 ? prefix.length() : typeEnd);
+            lineServerbound = prefix.contains("[SERVER BOUND]");
+            time = textTime(prefix.substring(1, prefix.indexOf(']')), startDate, sessionStart);
+        }
+        return lineType == null ? null : new Line(normalizeType(lineType), lineServerbound, time);
+    }
+
+    private boolean matches(Line line, long sessionStart) {
+        if (type != null && !line.type().equals(type)) {
+            return false;
+        }
+        if (serverbound != null && serverbound != line.serverbound()) {
+            return false;
+        }
+        long elapsed = line.time() - sessionStart;
+        return elapsed >= fromMillis && elapsed <= toMillis;
+    }
+
+    private static long textTime(String value, LocalDate startDate, long sessionStart) {
+        try {
+            LocalTime time = LocalTime.parse(value, TEXT_TIME);
+            long millis = startDate.atTime(time).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            // The text format has no date, a time before the start means the session ran past midnight.
+            return millis < sessionStart - 1000 ? millis + Duration.ofDays(1).toMillis() : millis;
+        } catch (DateTimeException e) {
+            return sessionStart;
+        }
+    }
+
+    private static String jsonString(String prefix, String key) {
+        int start = prefix.indexOf(key);
+        if (start < 0) {
+            return null;
+        }
+        start += key.length();
+        int end = prefix.indexOf('"', start);
+        return end < 0 ? null : prefix.substring(start, end);
+    }
+
+    private static String jsonNumber(String prefix, String key) {
+        int start = prefix.indexOf(key);
+        if (start < 0) {
+            return null;
+        }
+        start += key.length();
+        int end = start;
+        while (end < prefix.length() && Character.isDigit(prefix.charAt(end))) {
+            end++;
+        }
+        return end == start ? null : prefix.substring(start, end);
+    }
+
+    private static String decode(MappedByteBuffer map, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        map.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8).strip();
+    }
+
+    /**
+     * Makes LevelChunkPacket, LEVEL_CHUNK and level_chunk compare equal.
+     */
+    private static String normalizeType(String name) {
+        String normalized = name.replace("_", "").toLowerCase(Locale.ROOT);
+        return normalized.endsWith("packet") ? normalized.substring(0, normalized.length() - "packet".length()) : normalized;
+    }
+
+    private static long getSessionStart(Path session) {
+        String name = session.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(name.lastIndexOf('-') + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private record Result(Path session, long matches, List<String> lines, boolean indexed) {
+    }
+
+    private record Key(long bucket, String type, boolean serverbound) {
+    }
+
+    private record Line(String type, boolean serverbound, long time) {
+    }
+
+    /**
+     * Reads byte ranges of one capture through a memory mapping, counting and collecting the matching records.
+     */
+    private class Scan {
+        private final boolean json;
+        private final LocalDate startDate;
+        private final long sessionStart;
+        private final List<String> lines = new ArrayList<>();
+        private long matches;
+
+        Scan(Path capture, long sessionStart) {
+            this.json = capture.getFileName().toString().equals(LogFormat.JSONL.fileName);
+            this.startDate = Instant.ofEpochMilli(sessionStart).atZone(ZoneId.systemDefault()).toLocalDate();
+            this.sessionStart = sessionStart;
+        }
+
+        /**
+         * Checks every record starting in {@code [from, to)}.
+         *
+         * @param keys only count records of these segments, the others were counted from the index, null for all
+         */
+        void range(FileChannel channel, long from, long to, Set<Key> keys, long bucketMillis) throws IOException {
+            long size = channel.size();
+            long position = from;
+            while (position < Math.min(to, size)) {
+                long length = Math.min(MAP_CHUNK, size - position);
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == size;
+                int lineStart = 0;
+                for (int i = 0; i <= length && position + lineStart < to; i++) {
+                    boolean end = i == length;
+                    if (end && !last) {
+                        break;
+                    }
+                    if (end || map.get(i) == '\n') {
+                        if (i > lineStart) {
+                            check(map, lineStart, i, keys, bucketMillis);
+                        }
+                        lineStart = i + 1;
+                    }
+                }
+                if (position + lineStart >= to) {
+                    return;
+                }
+                // Continue at the first incomplete line, or skip a line longer than a whole chunk.
+                position += last || lineStart == 0 ? length : lineStart;
+            }
+        }
+
+        private void check(MappedByteBuffer map, int start, int end, Set<Key> keys, long bucketMillis) {
+            Line line = parse(map, start, end, json, startDate, sessionStart);
+            if (line == null || !matches(line, sessionStart)) {
+                return;
+            }
+            if (keys != null && !keys.contains(new Key(line.time() - line.time() % bucketMillis, line.type(), line.serverbound()))) {
+                return;
+            }
+            matches++;
+            if (print) {
+                lines.add(decode(map, start, end));
+            }
+        }
+    }
+}
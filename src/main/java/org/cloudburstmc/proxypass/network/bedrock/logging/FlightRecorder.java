@@ -0,0 +1,133 @@
+package org.cloudburstmc.proxypass.network.bedrock.logging;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+/**
+ * Keeps the raw payloads of the most recent packets of a session in an off-heap ring buffer, so the traffic
+ * leading up to an error can be written out after the fact. Packets are copied without being decoded.
+ * <p>
+ * Records older than the age limit, or that no longer fit in the buffer, are dropped oldest first. The ring holds
+ * the records in the dump format, one after the other and wrapping around its end, each being: the time in epoch
+ * milliseconds (long), the direction (byte, 1 for serverbound), the packet ID (int), the payload length (int) and
+ * the payload without the packet header.
+ */
+@Log4j2
+public class FlightRecorder {
+    private static final int RECORD_HEADER_SIZE = Long.BYTES + 1 + Integer.BYTES + Integer.BYTES;
+    private static final int LENGTH_OFFSET = Long.BYTES + 1 + Integer.BYTES;
+    private static final Set<String> NORMAL_DISCONNECTS = Set.of("disconnect.disconnected", "disconnect.closed", "disconnect.removed");
+
+    private final ByteBuf buffer;
+    private final int capacity;
+    private final long maxAgeMillis;
+    // Scratch space for reading and writing one record header.
+    private final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+    // Offset of the oldest record, bytes used by all records and their number.
+    private int head;
+    private int used;
+    private int count;
+    private boolean released;
+
+    public FlightRecorder(int capacity, long maxAgeMillis) {
+        this.capacity = capacity;
+        this.maxAgeMillis = maxAgeMillis;
+        this.buffer = ByteBufAllocator.DEFAULT.directBuffer(capacity, capacity);
+    }
+
+    public static boolean isNormalDisconnect(CharSequence reason) {
+        return reason == null || NORMAL_DISCONNECTS.contains(reason.toString());
+    }
+
+    public synchronized void record(BedrockPacketWrapper wrapper, boolean upstream) {
+        ByteBuf packetBuffer = wrapper.getPacketBuffer();
+        if (released || packetBuffer == null) {
+            return;
+        }
+        int start = packetBuffer.readerIndex() + wrapper.getHeaderLength();
+        int length = packetBuffer.writerIndex() - start;
+        int size = RECORD_HEADER_SIZE + length;
+        if (length < 0 || size > capacity) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        while (count > 0 && readHeader(head).getLong(0) < now - maxAgeMillis) {
+            dropOldest();
+        }
+        while (capacity - used < size) {
+            dropOldest();
+        }
+
+        int tail = wrap(head + used);
+        header.clear();
+        header.putLong(now).put((byte) (upstream ? 1 : 0)).putInt(wrapper.getPacketId()).putInt(length);
+        for (int i = 0; i < RECORD_HEADER_SIZE; i++) {
+            buffer.setByte(wrap(tail + i), header.get(i));
+        }
+        int payloadOffset = wrap(tail + RECORD_HEADER_SIZE);
+        int beforeEnd = Math.min(length, capacity - payloadOffset);
+        buffer.setBytes(payloadOffset, packetBuffer, start, beforeEnd);
+        buffer.setBytes(0, packetBuffer, start + beforeEnd, length - beforeEnd);
+        used += size;
+        count++;
+    }
+
+    private int wrap(int offset) {
+        return offset >= capacity ? offset - capacity : offset;
+    }
+
+    private ByteBuffer readHeader(int offset) {
+        for (int i = 0; i < RECORD_HEADER_SIZE; i++) {
+            header.put(i, buffer.getByte(wrap(offset + i)));
+        }
+        return header;
+    }
+
+    private void dropOldest() {
+        int size = RECORD_HEADER_SIZE + readHeader(head).getInt(LENGTH_OFFSET);
+        head = wrap(head + size);
+        used -= size;
+        count--;
+    }
+
+    /**
+     * Copies the recorded packets, oldest first, into a heap buffer in the dump format.
+     *
+     * @return the dump, null if the recorder has been released
+     */
+    public synchronized ByteBuffer snapshot() {
+        if (released) {
+            return null;
+        }
+        byte[] dump = new byte[used];
+        int beforeEnd = Math.min(used, capacity - head);
+        buffer.getBytes(head, dump, 0, beforeEnd);
+        buffer.getBytes(0, dump, beforeEnd, used - beforeEnd);
+        return ByteBuffer.wrap(dump);
+    }
+
+    /**
+     * @return bytes of direct memory held, 0 once released
+     */
+    public synchronized int getCapacity() {
+        return released ? 0 : capacity;
+    }
+
+    public synchronized int getRecordCount() {
+        return count;
+    }
+
+    public synchronized void release() {
+        if (!released) {
+            released = true;
+            buffer.release();
+        }
+    }
+}
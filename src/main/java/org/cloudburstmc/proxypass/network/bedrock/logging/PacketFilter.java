@@ -0,0 +1,129 @@
+package org.cloudburstmc.proxypass.network.bedrock.logging;
+
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.protocol.bedrock.codec.BedrockPacketDefinition;
+import org.cloudburstmc.protocol.bedrock.packet.BedrockPacket;
+import org.cloudburstmc.proxypass.ProxyPass;
+
+import java.util.Collection;
+
+/**
+ * Immutable set of packets to leave out of the packet log, indexed by packet ID and split by direction.
+ * A lookup is a single bit test, so it can be done before the packet has been decoded.
+ * <p>
+ * Entries are packet class names, optionally prefixed with {@code serverbound:} or {@code clientbound:} to only
+ * apply to one direction.
+ */
+@Log4j2
+public final class PacketFilter {
+    // The packet header only has 10 bits for the ID.
+    private static final int MAX_PACKET_ID = 1 << 10;
+    private static final int WORDS = MAX_PACKET_ID >>> 6;
+
+    private static final String SERVERBOUND_PREFIX = "serverbound:";
+    private static final String CLIENTBOUND_PREFIX = "clientbound:";
+
+    public static final PacketFilter NONE = new PacketFilter(new long[WORDS], new long[WORDS]);
+    public static final PacketFilter ALL = NONE.invert();
+
+    private final long[] serverbound;
+    private final long[] clientbound;
+
+    private PacketFilter(long[] serverbound, long[] clientbound) {
+        this.serverbound = serverbound;
+        this.clientbound = clientbound;
+    }
+
+    /**
+     * @param ignored  packets that are never logged
+     * @param included if not empty, only these packets are logged
+     */
+    public static PacketFilter of(Collection<String> ignored, Collection<String> included) {
+        long[] serverbound = new long[WORDS];
+        long[] clientbound = new long[WORDS];
+        for (String entry : ignored) {
+            set(entry, serverbound, clientbound);
+        }
+        PacketFilter filter = new PacketFilter(serverbound, clientbound);
+
+        if (!included.isEmpty()) {
+            long[] includedServerbound = new long[WORDS];
+            long[] includedClientbound = new long[WORDS];
+            for (String entry : included) {
+                set(entry, includedServerbound, includedClientbound);
+            }
+            filter = filter.union(new PacketFilter(includedServerbound, includedClientbound).invert());
+        }
+        return filter;
+    }
+
+    private static void set(String entry, long[] serverbound, long[] clientbound) {
+        boolean toServer = true;
+        boolean toClient = true;
+        String name = entry;
+        if (name.startsWith(SERVERBOUND_PREFIX)) {
+            name = name.substring(SERVERBOUND_PREFIX.length());
+            toClient = false;
+        } else if (name.startsWith(CLIENTBOUND_PREFIX)) {
+            name = name.substring(CLIENTBOUND_PREFIX.length());
+            toServer = false;
+        }
+
+        int packetId = getPacketId(name);
+        if (packetId < 0) {
+            return;
+        }
+        if (toServer) {
+            serverbound[packetId >>> 6] |= 1L << packetId;
+        }
+        if (toClient) {
+            clientbound[packetId >>> 6] |= 1L << packetId;
+        }
+    }
+
+    private static int getPacketId(String name) {
+        try {
+            Class<?> packetClass = Class.forName("org.cloudburstmc.protocol.bedrock.packet." + name);
+            BedrockPacketDefinition<?> definition = ProxyPass.CODEC.getPacketDefinition(packetClass.asSubclass(BedrockPacket.class));
+            if (definition == null) {
+                log.warn("Packet {} is not part of protocol {}", name, ProxyPass.PROTOCOL_VERSION);
+                return -1;
+            }
+            return definition.getId();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            log.warn("No packet with name {}", name);
+            return -1;
+        }
+    }
+
+    public boolean isIgnored(int packetId, boolean upstream) {
+        if (packetId < 0 || packetId >= MAX_PACKET_ID) {
+            return false;
+        }
+        long[] bits = upstream ? serverbound : clientbound;
+        return (bits[packetId >>> 6] & (1L << packetId)) != 0;
+    }
+
+    /**
+     * @return a filter that ignores a packet if either this or the other filter ignores it
+     */
+    public PacketFilter union(PacketFilter other) {
+        long[] serverbound = new long[WORDS];
+        long[] clientbound = new long[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            serverbound[i] = this.serverbound[i] | other.serverbound[i];
+            clientbound[i] = this.clientbound[i] | other.clientbound[i];
+        }
+        return new PacketFilter(serverbound, clientbound);
+    }
+
+    public PacketFilter invert() {
+        long[] serverbound = new long[WORDS];
+        long[] clientbound = new long[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            serverbound[i] = ~this.serverbound[i];
+            clientbound[i] = ~this.clientbound[i];
+        }
+        return new PacketFilter(serverbound, clientbound);
+    }
+}
@@ -1,18 +1,31 @@
 package org.cloudburstmc.proxypass.network.bedrock.logging;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 import org.cloudburstmc.protocol.bedrock.BedrockSession;
+import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
 import org.cloudburstmc.protocol.bedrock.packet.BedrockPacket;
+import org.cloudburstmc.proxypass.Configuration;
 import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.util.FileUtils;
+import org.cloudburstmc.proxypass.network.bedrock.util.LogFormat;
 import org.jose4j.json.internal.json_simple.JSONObject;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonGenerator;
 import tools.jackson.databind.JsonNode;
 import tools.jackson.databind.ObjectWriter;
+import tools.jackson.databind.SerializationFeature;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
@@ -20,11 +33,15 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Supplier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 
 @Log4j2
@@ -37,32 +54,138 @@ public class SessionLogger {
 
     private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
 
+    private static final AtomicInteger activeFlushTasks = new AtomicInteger();
+
+    // Each record is a root-level value, so the separator gives us one packet per line.
+    private static final ObjectWriter PACKET_WRITER = ProxyPass.JSON_MAPPER.writer()
+            .without(SerializationFeature.FAIL_ON_EMPTY_BEANS)
+            .withRootValueSeparator("\n");
+
+    private static final ObjectWriter JSON_WRITER = ProxyPass.JSON_MAPPER.writerWithDefaultPrettyPrinter();
+
     private final ProxyPass proxy;
 
     private final Path dataPath;
 
     private final Path logPath;
 
-    private final Deque<String> logBuffer = new ArrayDeque<>();
+    private final LogFormat logFormat;
+
+    /**
+     * Overrides the proxy wide filter and log-packets for this session only, null to follow the configuration.
+     */
+    @Setter
+    private volatile PacketFilter packetFilter;
+
+    private final Deque<LogLine> logBuffer = new ArrayDeque<>();
+    // Characters of text lines waiting in logBuffer, guarded by it.
+    private long bufferedChars;
+
+    private final CaptureIndex index = new CaptureIndex();
+
+    // Bytes of the capture file already written, guarded by the buffer of the respective format.
+    private long logFileOffset;
+    // Set once the index sidecar can't be kept in step with the capture, it is deleted then.
+    private volatile boolean indexInvalid;
+
+    private final ByteBuf jsonBuffer = Unpooled.buffer();
+    // Records in jsonBuffer, indexed once they have been written to the file.
+    private final List<IndexEntry> jsonEntries = new ArrayList<>();
+
+    private JsonGenerator jsonGenerator;
+
+    private long jsonRecords;
+
+    private ScheduledFuture<?> flushTask;
+
+    private volatile boolean closed;
 
     public SessionLogger(ProxyPass proxy, Path sessionsDir, String displayName, long timestamp) {
         this.proxy = proxy;
+        this.logFormat = proxy.getConfiguration().getLogFormat();
         this.dataPath = sessionsDir.resolve(displayName + '-' + timestamp);
-        this.logPath = dataPath.resolve("packets.log");
+        this.logPath = dataPath.resolve(logFormat.fileName);
     }
 
     public void start() {
-        if (proxy.getConfiguration().isLoggingPackets()) {
-            if (proxy.getConfiguration().getLogTo().logToFile) {
-                log.debug("Packets will be logged under " + logPath.toString());
-                try {
-                    Files.createDirectories(dataPath);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+        if (proxy.getConfiguration().isLoggingPackets() && proxy.getConfiguration().getLogTo().logToFile) {
+            log.debug("Packets will be logged under " + logPath.toString());
+            try {
+                Files.createDirectories(dataPath);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        // Always scheduled as log-packets can be switched on by a configuration reload.
+        // The scheduler only hands the flush over, the write itself happens on the blocking executor.
+        flushTask = executor.scheduleAtFixedRate(() -> proxy.getBlockingExecutor().execute(logPath, this::flushLogBuffer),
+                5, 5, TimeUnit.SECONDS);
+        activeFlushTasks.incrementAndGet();
+    }
+
+    public PacketFilter getPacketFilter() {
+        PacketFilter filter = this.packetFilter;
+        return filter != null ? filter : proxy.getPacketFilter();
+    }
+
+    /**
+     * @return rough amount of memory held by log output that is waiting to be written
+     */
+    public long getBufferedBytes() {
+        long bytes;
+        synchronized (logBuffer) {
+            bytes = bufferedChars;
+        }
+        synchronized (jsonBuffer) {
+            if (!closed) {
+                bytes += jsonBuffer.capacity();
             }
-            executor.scheduleAtFixedRate(this::flushLogBuffer, 5, 5, TimeUnit.SECONDS);
         }
+        return bytes;
+    }
+
+    /**
+     * @return rough amount of heap used by capture index segments waiting to be appended to the sidecar
+     */
+    public long getIndexSize() {
+        return index.estimateSize();
+    }
+
+    /**
+     * Stops the periodic flush and writes out whatever is still buffered. Packets logged after this are dropped.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (flushTask == null) {
+            return;
+        }
+        flushTask.cancel(false);
+        flushTask = null;
+        activeFlushTasks.decrementAndGet();
+
+        // Ordered after any flush of this log that is already queued or running.
+        proxy.getBlockingExecutor().execute(logPath, () -> {
+            synchronized (jsonBuffer) {
+                if (jsonGenerator != null) {
+                    jsonGenerator.close();
+                    jsonGenerator = null;
+                }
+                if (jsonRecords > 0) {
+                    jsonBuffer.writeByte('\n');
+                }
+            }
+            flushLogBuffer();
+            synchronized (jsonBuffer) {
+                jsonBuffer.release();
+            }
+        });
+    }
+
+    /**
+     * @return number of sessions with a scheduled flush task, should never exceed the number of live sessions
+     */
+    public static int getActiveFlushTasks() {
+        return activeFlushTasks.get();
     }
 
     public void saveImage(String name, BufferedImage image) {
@@ -74,42 +197,108 @@ public class SessionLogger {
         }
     }
 
+    public void saveRawImage(String name, int width, int height, byte[] rgba) {
+        Path path = dataPath.resolve(name + '_' + width + 'x' + height + ".rgba");
+        try {
+            Files.createDirectories(dataPath);
+            Files.write(path, rgba, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Makes a blob from the {@link BlobStore} show up in the session folder. A hard link is used where the file
+     * system supports it, otherwise a {@code .ref} file containing the path of the blob is written instead.
+     */
+    public void linkBlob(String fileName, Path blob) {
+        Path path = dataPath.resolve(fileName);
+        try {
+            Files.createDirectories(dataPath);
+            Files.deleteIfExists(path);
+            try {
+                Files.createLink(path, blob);
+            } catch (UnsupportedOperationException | IOException e) {
+                Files.writeString(dataPath.resolve(fileName + ".ref"), dataPath.relativize(blob).toString(),
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void saveData(String fileName, ByteBuffer data) {
+        try {
+            FileUtils.writeAtomically(dataPath.resolve(fileName), stream -> stream.write(data.array(), data.arrayOffset() + data.position(), data.remaining()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void saveJson(String name, JSONObject object) throws IOException {
-        Files.createDirectories(dataPath);
-        ObjectWriter jsonout = ProxyPass.JSON_MAPPER.writerWithDefaultPrettyPrinter();
-        jsonout.writeValue(new FileOutputStream(logPath.getParent().resolve(name + ".json").toFile()), object);
+        writeJson(name, stream -> JSON_WRITER.writeValue(stream, object));
     }
 
     public void saveJson(String name, JsonNode node) throws IOException {
-        Files.createDirectories(dataPath);
-        ObjectWriter jsonout = ProxyPass.JSON_MAPPER.writerWithDefaultPrettyPrinter();
-        jsonout.writeValue(new FileOutputStream(logPath.getParent().resolve(name + ".json").toFile()), node);
+        writeJson(name, stream -> JSON_WRITER.writeValue(stream, node));
     }
 
     public void saveJson(String name, byte[] encodedJsonString) {
-        Path geometryPath = dataPath.resolve(name + ".json");
         try {
-            Files.createDirectories(dataPath);
-            Files.write(geometryPath, encodedJsonString, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            writeJson(name, stream -> stream.write(encodedJsonString));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public void logPacket(BedrockSession session, BedrockPacket packet, boolean upstream) {
+    /**
+     * Writes a JSON file to the session folder, compressed and with a .json.gz suffix when gzip-json is set.
+     */
+    private void writeJson(String name, FileUtils.Writer content) throws IOException {
+        boolean gzip = proxy.getConfiguration().isGzipJson();
+        FileUtils.writeAtomically(dataPath.resolve(name + (gzip ? ".json.gz" : ".json")), stream -> {
+            if (gzip) {
+                try (OutputStream gzipStream = new GZIPOutputStream(stream, 8192)) {
+                    content.write(gzipStream);
+                }
+            } else {
+                content.write(stream);
+            }
+        });
+    }
+
+    public void logPacket(BedrockSession session, BedrockPacketWrapper wrapper, boolean upstream) {
+        BedrockPacket packet = wrapper.getPacket();
         String logPrefix = getLogPrefix(upstream);
-        if (!proxy.isIgnoredPacket(packet.getClass())) {
+        PacketFilter override = this.packetFilter;
+        PacketFilter filter = override != null ? override : proxy.getPacketFilter();
+        if (!closed && !filter.isIgnored(wrapper.getPacketId(), upstream)) {
             if (session.isLogging() && log.isTraceEnabled()) {
                 log.trace("{} {}: {}", logPrefix, session.getSocketAddress(), packet);
             }
 
-            String logMessage = String.format(LOG_FORMAT, FORMATTER.format(Instant.now()), logPrefix, packet);
-            if (proxy.getConfiguration().isLoggingPackets()) {
-                logToBuffer(() -> logMessage);
+            // Read once so a reload can't change the settings halfway through a packet.
+            Configuration configuration = proxy.getConfiguration();
+            if (override == null && !configuration.isLoggingPackets()) {
+                return;
             }
 
-            if (proxy.getConfiguration().isLoggingPackets() && proxy.getConfiguration().getLogTo().logToConsole) {
-                System.out.println(logMessage);
+            long time = System.currentTimeMillis();
+            boolean logToJson = logFormat == LogFormat.JSONL && configuration.getLogTo().logToFile;
+            if (logToJson) {
+                logToJson(wrapper, upstream, time);
+            }
+
+            // JSONL file output never needs the toString() form, only the console does.
+            if (!logToJson || configuration.getLogTo().logToConsole) {
+                String logMessage = String.format(LOG_FORMAT, FORMATTER.format(Instant.ofEpochMilli(time)), logPrefix, packet);
+                if (!logToJson) {
+                    logToBuffer(new LogLine(logMessage, packet.getClass().getSimpleName(), upstream, time));
+                }
+
+                if (configuration.getLogTo().logToConsole) {
+                    System.out.println(logMessage);
+                }
             }
         }
     }
@@ -118,22 +307,154 @@ public class SessionLogger {
         return upstream ? "SERVER BOUND" : "CLIENT BOUND";
     }
 
-    private void logToBuffer(Supplier<String> supplier) {
+    private void logToBuffer(LogLine line) {
         synchronized (logBuffer) {
-            logBuffer.addLast(supplier.get());
+            logBuffer.addLast(line);
+            bufferedChars += line.text().length();
+        }
+    }
+
+    private void logToJson(BedrockPacketWrapper wrapper, boolean upstream, long time) {
+        BedrockPacket packet = wrapper.getPacket();
+        synchronized (jsonBuffer) {
+            if (closed) {
+                return;
+            }
+            int mark = jsonBuffer.writerIndex();
+            try {
+                JsonGenerator generator = getJsonGenerator();
+                generator.writeStartObject();
+                generator.writeNumberProperty("time", time);
+                generator.writeStringProperty("direction", upstream ? "serverbound" : "clientbound");
+                generator.writeNumberProperty("id", wrapper.getPacketId());
+                generator.writeStringProperty("type", packet.getPacketType().name());
+                generator.writeName("packet");
+                generator.writePOJO(packet);
+                generator.writeEndObject();
+                // Only moves bytes into the in-memory buffer, the file is written by flushLogBuffer.
+                generator.flush();
+                jsonRecords++;
+                // Points at the separator before the record, readers skip it.
+                jsonEntries.add(new IndexEntry(packet.getClass().getSimpleName(), upstream, time, mark, jsonBuffer.writerIndex()));
+            } catch (JacksonException e) {
+                log.warn("Unable to serialize {} to JSON", packet.getClass().getSimpleName(), e);
+                // Drop the partial record, the generator is left mid-object and can't be reused.
+                jsonBuffer.writerIndex(mark);
+                jsonGenerator = null;
+            }
         }
     }
 
+    private JsonGenerator getJsonGenerator() {
+        if (jsonGenerator == null) {
+            if (jsonRecords > 0) {
+                // A fresh generator doesn't know previous records were written.
+                jsonBuffer.writeByte('\n');
+            }
+            jsonGenerator = PACKET_WRITER.createGenerator(new ByteBufOutputStream(jsonBuffer));
+        }
+        return jsonGenerator;
+    }
+
     private void flushLogBuffer() {
         synchronized (logBuffer) {
             try {
-                if (proxy.getConfiguration().getLogTo().logToFile) {
-                    Files.write(logPath, logBuffer, StandardOpenOption.APPEND, StandardOpenOption.CREATE);
+                if (proxy.getConfiguration().getLogTo().logToFile && !logBuffer.isEmpty()) {
+                    Files.createDirectories(dataPath);
+                    long[] offsets = new long[logBuffer.size() + 1];
+                    long offset = logFileOffset;
+                    int i = 0;
+                    try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(logPath, StandardOpenOption.APPEND, StandardOpenOption.CREATE))) {
+                        for (LogLine line : logBuffer) {
+                            byte[] bytes = line.text().getBytes(StandardCharsets.UTF_8);
+                            offsets[i++] = offset;
+                            stream.write(bytes);
+                            stream.write('\n');
+                            offset += bytes.length + 1;
+                        }
+                    }
+                    offsets[i] = offset;
+                    // Only indexed once written, a failed flush is retried with the same lines.
+                    i = 0;
+                    if (!indexInvalid) {
+                        for (LogLine line : logBuffer) {
+                            index.add(line.type(), line.serverbound(), line.time(), offsets[i], offsets[++i]);
+                        }
+                    }
+                    logFileOffset = offset;
                 }
                 logBuffer.clear();
+                bufferedChars = 0;
             } catch (IOException e) {
                 log.error("Unable to flush packet log", e);
+                resyncLogFileOffset();
+            }
+        }
+
+        synchronized (jsonBuffer) {
+            if (jsonBuffer.isReadable()) {
+                try {
+                    Files.createDirectories(dataPath);
+                } catch (IOException e) {
+                    log.error("Unable to create session directory", e);
+                }
+                try (OutputStream stream = Files.newOutputStream(logPath, StandardOpenOption.APPEND, StandardOpenOption.CREATE)) {
+                    int written = jsonBuffer.readableBytes();
+                    jsonBuffer.readBytes(stream, written);
+                    if (!indexInvalid) {
+                        for (IndexEntry entry : jsonEntries) {
+                            index.add(entry.type(), entry.serverbound(), entry.time(), logFileOffset + entry.bufferStart(),
+                                    logFileOffset + entry.bufferEnd());
+                        }
+                    }
+                    logFileOffset += written;
+                } catch (IOException e) {
+                    log.error("Unable to flush packet log", e);
+                    resyncLogFileOffset();
+                }
+                jsonBuffer.clear();
+                jsonEntries.clear();
             }
         }
+
+        // Appended right after the capture itself, so a crash loses at most the segments of this flush.
+        if (!indexInvalid && index.hasPending()) {
+            try {
+                index.append(CaptureIndex.pathFor(logPath), logFileOffset);
+            } catch (IOException e) {
+                log.error("Unable to append to capture index", e);
+                dropIndex();
+            }
+        }
+    }
+
+    /**
+     * After a failed write it is unknown how much of it reached the file, so offsets continue from its actual size.
+     */
+    private void resyncLogFileOffset() {
+        try {
+            logFileOffset = Files.exists(logPath) ? Files.size(logPath) : 0;
+        } catch (IOException e) {
+            log.error("Unable to read the size of {}, its capture index is dropped", logPath, e);
+            dropIndex();
+        }
+    }
+
+    /**
+     * Deletes the index sidecar once it can no longer be trusted, queries then scan the capture instead.
+     */
+    private void dropIndex() {
+        indexInvalid = true;
+        try {
+            Files.deleteIfExists(CaptureIndex.pathFor(logPath));
+        } catch (IOException e) {
+            log.error("Unable to delete capture index of {}", logPath, e);
+        }
+    }
+
+    private record LogLine(String text, String type, boolean serverbound, long time) {
+    }
+
+    private record IndexEntry(String type, boolean serverbound, long time, long bufferStart, long bufferEnd) {
     }
 }
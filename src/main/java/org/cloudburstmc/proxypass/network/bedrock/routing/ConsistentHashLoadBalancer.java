@@ -0,0 +1,70 @@
+package org.cloudburstmc.proxypass.network.bedrock.routing;
+
+import org.cloudburstmc.protocol.bedrock.util.ChainValidationResult.IdentityData;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps a player on the same destination across reconnects by hashing their XUID onto a ring of destinations.
+ * Adding or losing a destination only moves the players that hashed to it.
+ */
+public class ConsistentHashLoadBalancer implements LoadBalancer {
+    private static final int VIRTUAL_NODES = 128;
+
+    private final int[] ring;
+    private final Destination[] owners;
+
+    public ConsistentHashLoadBalancer(List<Destination> destinations) {
+        int size = destinations.size() * VIRTUAL_NODES;
+        long[] nodes = new long[size];
+        int index = 0;
+        for (int i = 0; i < destinations.size(); i++) {
+            String address = destinations.get(i).getAddress().toString();
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                // Hash in the high bits so sorting orders by hash, owner index in the low bits.
+                nodes[index++] = ((long) hash(address + '#' + node) << 32) | i;
+            }
+        }
+        Arrays.sort(nodes);
+
+        this.ring = new int[size];
+        this.owners = new Destination[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = (int) (nodes[i] >> 32);
+            owners[i] = destinations.get((int) nodes[i]);
+        }
+    }
+
+    @Override
+    public Destination select(List<Destination> candidates, IdentityData identity) {
+        String key = identity.xuid == null || identity.xuid.isEmpty() ? identity.displayName : identity.xuid;
+        int start = Arrays.binarySearch(ring, hash(key));
+        if (start < 0) {
+            start = -start - 1;
+        }
+
+        // Walk clockwise until we reach a destination that is allowed.
+        for (int i = 0; i < ring.length; i++) {
+            Destination destination = owners[(start + i) % ring.length];
+            if (candidates.contains(destination)) {
+                return destination;
+            }
+        }
+        return candidates.get(0);
+    }
+
+    private static int hash(String value) {
+        // FNV-1a followed by a finalizer, String.hashCode() clusters badly for similar keys.
+        int hash = 0x811c9dc5;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
@@ -0,0 +1,57 @@
+package org.cloudburstmc.proxypass.network.bedrock.routing;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.ToString;
+import org.cloudburstmc.protocol.bedrock.BedrockPong;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A backend server players can be routed to.
+ */
+@Getter
+@ToString
+public class Destination {
+    private final InetSocketAddress address;
+    @Getter(AccessLevel.NONE)
+    private final AtomicInteger connections = new AtomicInteger();
+    // Assume a destination is up until a health check says otherwise.
+    private volatile boolean healthy = true;
+    private volatile long lastPongTime = System.currentTimeMillis();
+    private volatile BedrockPong lastPong;
+
+    public Destination(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    void connectionOpened() {
+        connections.incrementAndGet();
+    }
+
+    void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    void onPong(long time, BedrockPong pong) {
+        lastPongTime = time;
+        lastPong = pong;
+        healthy = true;
+    }
+
+    /**
+     * @return true if the destination just went from healthy to unhealthy
+     */
+    boolean checkTimeout(long now, long timeoutMillis) {
+        if (healthy && now - lastPongTime > timeoutMillis) {
+            healthy = false;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,84 @@
+package org.cloudburstmc.proxypass.network.bedrock.routing;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.netty.channel.raknet.RakChannelFactory;
+import org.cloudburstmc.netty.channel.raknet.RakPing;
+import org.cloudburstmc.netty.channel.raknet.RakPong;
+import org.cloudburstmc.protocol.bedrock.BedrockPong;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends RakNet unconnected pings to every destination and marks those that stop answering as unhealthy.
+ */
+@Log4j2
+public class DestinationHealthCheck extends SimpleChannelInboundHandler<RakPong> {
+    // Missing this many pings in a row marks a destination as down.
+    private static final int MISSED_PINGS = 3;
+
+    private final Map<InetSocketAddress, Destination> destinations = new HashMap<>();
+    private final long intervalMillis;
+    private Channel channel;
+
+    public DestinationHealthCheck(List<Destination> destinations, long intervalMillis) {
+        for (Destination destination : destinations) {
+            this.destinations.put(destination.getAddress(), destination);
+        }
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void start(EventLoopGroup eventLoopGroup) {
+        this.channel = new Bootstrap()
+                .group(eventLoopGroup)
+                .channelFactory(RakChannelFactory.client(NioDatagramChannel.class))
+                .handler(this)
+                .bind(0)
+                .awaitUninterruptibly()
+                .channel();
+
+        this.channel.eventLoop().scheduleAtFixedRate(this::ping, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (this.channel != null) {
+            this.channel.close();
+        }
+    }
+
+    private void ping() {
+        long now = System.currentTimeMillis();
+        for (Destination destination : destinations.values()) {
+            if (destination.checkTimeout(now, intervalMillis * MISSED_PINGS)) {
+                log.warn("Destination {} stopped responding to pings", destination.getAddress());
+            }
+            this.channel.writeAndFlush(new RakPing(now, destination.getAddress()));
+        }
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, RakPong pong) {
+        Destination destination = destinations.get(pong.getSender());
+        if (destination != null) {
+            if (!destination.isHealthy()) {
+                log.info("Destination {} is responding again", destination.getAddress());
+            }
+            BedrockPong advertisement = null;
+            try {
+                advertisement = BedrockPong.fromToken(pong.getPongData());
+            } catch (Exception e) {
+                log.debug("Invalid pong from {}", destination.getAddress(), e);
+            }
+            destination.onPong(System.currentTimeMillis(), advertisement);
+        }
+    }
+}
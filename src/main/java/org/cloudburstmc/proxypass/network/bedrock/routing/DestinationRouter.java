@@ -0,0 +1,81 @@
+package org.cloudburstmc.proxypass.network.bedrock.routing;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.protocol.bedrock.BedrockPong;
+import org.cloudburstmc.protocol.bedrock.util.ChainValidationResult.IdentityData;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the destination for each new player.
+ */
+@Log4j2
+public class DestinationRouter {
+    @Getter
+    private final List<Destination> destinations = new ArrayList<>();
+    private final LoadBalancer loadBalancer;
+    private DestinationHealthCheck healthCheck;
+
+    public DestinationRouter(List<InetSocketAddress> addresses, LoadBalancingStrategy strategy) {
+        for (InetSocketAddress address : addresses) {
+            this.destinations.add(new Destination(address));
+        }
+        this.loadBalancer = strategy.create(this.destinations);
+    }
+
+    public void startHealthChecks(EventLoopGroup eventLoopGroup, long intervalMillis) {
+        this.healthCheck = new DestinationHealthCheck(this.destinations, intervalMillis);
+        this.healthCheck.start(eventLoopGroup);
+    }
+
+    public void stop() {
+        if (this.healthCheck != null) {
+            this.healthCheck.stop();
+        }
+    }
+
+    public Destination select(IdentityData identity) {
+        if (destinations.size() == 1) {
+            return destinations.get(0);
+        }
+
+        List<Destination> candidates = new ArrayList<>(destinations.size());
+        for (Destination destination : destinations) {
+            if (destination.isHealthy()) {
+                candidates.add(destination);
+            }
+        }
+        if (candidates.isEmpty()) {
+            // Better to try a destination that might be down than to refuse everyone.
+            log.warn("No healthy destinations, picking from all of them");
+            candidates = destinations;
+        }
+        return loadBalancer.select(candidates, identity);
+    }
+
+    /**
+     * @return the latest pong of the first healthy destination that answered, null if none did
+     */
+    public BedrockPong getRelayPong() {
+        for (Destination destination : destinations) {
+            BedrockPong pong = destination.getLastPong();
+            if (destination.isHealthy() && pong != null) {
+                return pong;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tracks the connection against the destination until the channel closes.
+     */
+    public void track(Destination destination, Channel channel) {
+        destination.connectionOpened();
+        channel.closeFuture().addListener(future -> destination.connectionClosed());
+    }
+}
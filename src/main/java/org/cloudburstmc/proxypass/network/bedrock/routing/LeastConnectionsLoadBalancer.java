@@ -0,0 +1,20 @@
+package org.cloudburstmc.proxypass.network.bedrock.routing;
+
+import org.cloudburstmc.protocol.bedrock.util.ChainValidationResult.IdentityData;
+
+import java.util.List;
+
+public class LeastConnectionsLoadBalancer implements LoadBalancer {
+
+    @Override
+    public Destination select(List<Destination> candidates, IdentityData identity) {
+        Destination selected = candidates.get(0);
+        for (int i = 1; i < candidates.size(); i++) {
+            Destination destination = candidates.get(i);
+            if (destination.getConnections() < selected.getConnections()) {
+                selected = destination;
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,14 @@
+package org.cloudburstmc.proxypass.network.bedrock.routing;
+
+import org.cloudburstmc.protocol.bedrock.util.ChainValidationResult.IdentityData;
+
+import java.util.List;
+
+public interface LoadBalancer {
+
+    /**
+     * @param candidates destinations that may be picked, never empty
+     * @param identity   the player that is connecting
+     */
+    Destination select(List<Destination> candidates, IdentityData identity);
+}
@@ -0,0 +1,31 @@
+package org.cloudburstmc.proxypass.network.bedrock.routing;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+public enum LoadBalancingStrategy {
+    @JsonProperty("round-robin")
+    ROUND_ROBIN {
+        @Override
+        public LoadBalancer create(List<Destination> destinations) {
+            return new RoundRobinLoadBalancer();
+        }
+    },
+    @JsonProperty("least-connections")
+    LEAST_CONNECTIONS {
+        @Override
+        public LoadBalancer create(List<Destination> destinations) {
+            return new LeastConnectionsLoadBalancer();
+        }
+    },
+    @JsonProperty("consistent-hash")
+    CONSISTENT_HASH {
+        @Override
+        public LoadBalancer create(List<Destination> destinations) {
+            return new ConsistentHashLoadBalancer(destinations);
+        }
+    };
+
+    public abstract LoadBalancer create(List<Destination> destinations);
+}
@@ -0,0 +1,15 @@
+package org.cloudburstmc.proxypass.network.bedrock.routing;
+
+import org.cloudburstmc.protocol.bedrock.util.ChainValidationResult.IdentityData;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RoundRobinLoadBalancer implements LoadBalancer {
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public Destination select(List<Destination> candidates, IdentityData identity) {
+        return candidates.get(Math.floorMod(counter.getAndIncrement(), candidates.size()));
+    }
+}
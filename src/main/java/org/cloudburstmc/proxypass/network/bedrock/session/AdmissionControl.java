@@ -0,0 +1,120 @@
+package org.cloudburstmc.proxypass.network.bedrock.session;
+
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.proxypass.Configuration;
+import org.cloudburstmc.proxypass.ProxyPass;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether a new connection may start logging in. This runs when the channel is created, before any
+ * crypto or downstream connection work is done for it.
+ */
+@Log4j2
+public class AdmissionControl {
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final ProxyPass proxy;
+    private final Map<InetAddress, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger handshakes = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    public AdmissionControl(ProxyPass proxy) {
+        this.proxy = proxy;
+    }
+
+    /**
+     * @return a handshake that must be finished once login completes or the connection goes away, null if the
+     * connection should be rejected
+     */
+    public Handshake tryAdmit(SocketAddress socketAddress) {
+        Configuration configuration = proxy.getConfiguration();
+
+        if (proxy.isDraining()) {
+            return reject(socketAddress, "proxy is draining");
+        }
+
+        if (proxy.isFull()) {
+            return reject(socketAddress, "proxy is full");
+        }
+
+        if (configuration.getIpRateLimit() > 0 && socketAddress instanceof InetSocketAddress inetAddress) {
+            TokenBucket bucket = buckets.computeIfAbsent(inetAddress.getAddress(), address -> new TokenBucket());
+            if (!bucket.tryConsume(configuration.getIpRateLimit(), Math.max(1, configuration.getIpRateLimitBurst()))) {
+                return reject(socketAddress, "rate limited");
+            }
+        }
+
+        int maxHandshakes = configuration.getMaxConcurrentHandshakes();
+        if (handshakes.incrementAndGet() > maxHandshakes && maxHandshakes > 0) {
+            handshakes.decrementAndGet();
+            return reject(socketAddress, "too many logins in progress");
+        }
+        return new Handshake();
+    }
+
+    private Handshake reject(SocketAddress address, String reason) {
+        rejected.increment();
+        log.debug("Rejecting connection from {}: {}", address, reason);
+        return null;
+    }
+
+    /**
+     * Drops the rate limit state of addresses that have not connected for a while.
+     */
+    public void cleanup() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.isIdle(now));
+    }
+
+    public int getHandshakes() {
+        return handshakes.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public final class Handshake {
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        public void finish() {
+            if (finished.compareAndSet(false, true)) {
+                handshakes.decrementAndGet();
+            }
+        }
+    }
+
+    private static class TokenBucket {
+        private double tokens = -1;
+        private long lastRefill = System.nanoTime();
+
+        synchronized boolean tryConsume(double ratePerSecond, int burst) {
+            long now = System.nanoTime();
+            if (tokens < 0) {
+                tokens = burst;
+            } else {
+                tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerSecond / TimeUnit.SECONDS.toNanos(1));
+            }
+            lastRefill = now;
+
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        synchronized boolean isIdle(long now) {
+            return now - lastRefill > IDLE_NANOS;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.cloudburstmc.proxypass.network.bedrock.session;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds back what the destination sends while the client's channel is unwritable, that is while more than the high
+ * water mark is waiting to be sent to the client, and lets it through again once the channel is writable. This keeps
+ * a client on a bad link from growing the proxy's send queue without limit.
+ * <p>
+ * Packets are held in the destination's session pipeline, in front of decoding. RakNet below it keeps reading,
+ * acknowledging and answering pings, so the destination doesn't see a dead connection while the client catches up.
+ * Serverbound traffic is not paused, it is small in comparison.
+ */
+@Log4j2
+public class Backpressure {
+    private static final String NAME = "proxypass-backpressure";
+    private static final LongAdder pauses = new LongAdder();
+
+    private final Channel client;
+    private final Channel destination;
+    private final Deque<Object> held = new ArrayDeque<>();
+    private volatile long heldBytes;
+    private ChannelHandlerContext gate;
+    private boolean paused;
+    private boolean closed;
+
+    public Backpressure(Channel client, Channel destination, int lowWaterMark, int highWaterMark) {
+        this.client = client;
+        this.destination = destination;
+        client.config().setWriteBufferWaterMark(new WriteBufferWaterMark(lowWaterMark, highWaterMark));
+        // Both channels share this event loop, so pausing never crosses threads.
+        client.pipeline().addLast(NAME, new WritabilityListener());
+        destination.pipeline().addFirst(NAME, new Gate());
+        client.closeFuture().addListener(future -> destination.eventLoop().execute(this::close));
+        destination.closeFuture().addListener(future -> destination.eventLoop().execute(this::close));
+    }
+
+    private void onWritabilityChanged() {
+        if (closed) {
+            return;
+        }
+        if (!client.isWritable() && !paused) {
+            paused = true;
+            pauses.increment();
+            log.debug("Holding packets from {}, {} can't keep up", destination.remoteAddress(), client.remoteAddress());
+        } else if (client.isWritable() && paused) {
+            paused = false;
+            log.debug("Releasing {} held bytes from {}", heldBytes, destination.remoteAddress());
+            release();
+        }
+    }
+
+    private void release() {
+        if (gate == null || held.isEmpty()) {
+            return;
+        }
+        Object message;
+        // Forwarding can make the client unwritable again, the rest then waits for the next change.
+        while (!paused && (message = held.poll()) != null) {
+            heldBytes -= sizeOf(message);
+            gate.fireChannelRead(message);
+        }
+        gate.fireChannelReadComplete();
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Object message;
+        while ((message = held.poll()) != null) {
+            ReferenceCountUtil.release(message);
+        }
+        heldBytes = 0;
+    }
+
+    private static long sizeOf(Object message) {
+        if (message instanceof ByteBuf buf) {
+            return buf.readableBytes();
+        }
+        if (message instanceof ByteBufHolder holder) {
+            return holder.content().readableBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * @return bytes from the destination held back until the client catches up
+     */
+    public long getHeldBytes() {
+        return heldBytes;
+    }
+
+    /**
+     * @return bytes waiting in the channel's outbound buffer, RakNet's own send queue is not included
+     */
+    public static long pendingBytes(Channel channel) {
+        ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+        return buffer == null ? 0 : buffer.totalPendingWriteBytes();
+    }
+
+    /**
+     * @return number of times forwarding was paused since startup, across all sessions
+     */
+    public static long getPauses() {
+        return pauses.sum();
+    }
+
+    private class WritabilityListener extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            onWritabilityChanged();
+            super.channelWritabilityChanged(ctx);
+        }
+    }
+
+    private class Gate extends ChannelInboundHandlerAdapter {
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            gate = ctx;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            // Keep the order, anything arriving while older packets are still held has to queue behind them.
+            if (closed || (!paused && held.isEmpty())) {
+                ctx.fireChannelRead(msg);
+                return;
+            }
+            held.add(msg);
+            heldBytes += sizeOf(msg);
+        }
+    }
+}
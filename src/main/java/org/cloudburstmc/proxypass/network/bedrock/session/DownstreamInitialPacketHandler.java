@@ -7,6 +7,7 @@ import org.cloudburstmc.protocol.bedrock.util.EncryptionUtils;
 import org.cloudburstmc.protocol.bedrock.util.JsonUtils;
 import org.cloudburstmc.protocol.common.PacketSignal;
 import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.jfr.LoginPhaseEvent;
 import org.jose4j.json.JsonUtil;
 import org.jose4j.json.internal.json_simple.JSONObject;
 import org.jose4j.jws.JsonWebSignature;
@@ -30,14 +31,21 @@ public class DownstreamInitialPacketHandler implements BedrockPacketHandler {
 
     @Override
     public PacketSignal handle(NetworkSettingsPacket packet) {
+        LoginPhaseEvent event = new LoginPhaseEvent();
+        event.begin();
         this.session.setCompression(packet.getCompressionAlgorithm());
         log.info("Compression algorithm picked {}", packet.getCompressionAlgorithm());
 
         this.session.sendPacketImmediately(this.loginPacket);
+        event.finish("network-settings", this.player.getIdentityData().displayName, true);
         return PacketSignal.HANDLED;
     }
 
     public PacketSignal handle(ServerToClientHandshakePacket packet) {
+        this.player.getTimeline().end(JoinTimeline.Phase.SERVER_LOGIN);
+        this.player.getTimeline().begin(JoinTimeline.Phase.ENCRYPTION);
+        LoginPhaseEvent event = new LoginPhaseEvent();
+        event.begin();
         try {
             JsonWebSignature jws = new JsonWebSignature();
             jws.setCompactSerialization(packet.getJwt());
@@ -48,6 +56,7 @@ public class DownstreamInitialPacketHandler implements BedrockPacketHandler {
                     Base64.getDecoder().decode(JsonUtils.childAsType(saltJwt, "salt", String.class)));
             session.enableEncryption(key);
         } catch (JoseException | NoSuchAlgorithmException | InvalidKeySpecException | InvalidKeyException e) {
+            event.finish("encryption", this.player.getIdentityData().displayName, false);
             throw new RuntimeException(e);
         }
 
@@ -56,6 +65,10 @@ public class DownstreamInitialPacketHandler implements BedrockPacketHandler {
 
 
         this.session.setPacketHandler(new DownstreamPacketHandler(this.session, this.player, this.proxy));
+        this.player.getUpstream().finishHandshake();
+        event.finish("encryption", this.player.getIdentityData().displayName, true);
+        this.player.getTimeline().end(JoinTimeline.Phase.ENCRYPTION);
+        this.player.getTimeline().begin(JoinTimeline.Phase.START_GAME);
         log.debug("Downstream connected");
         return PacketSignal.HANDLED;
     }
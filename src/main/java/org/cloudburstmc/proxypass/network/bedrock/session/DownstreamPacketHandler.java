@@ -3,14 +3,16 @@ package org.cloudburstmc.proxypass.network.bedrock.session;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
 import lombok.*;
 import lombok.extern.log4j.Log4j2;
-import org.cloudburstmc.nbt.NBTOutputStream;
 import org.cloudburstmc.nbt.NbtMap;
 import org.cloudburstmc.nbt.NbtMapBuilder;
-import org.cloudburstmc.nbt.util.stream.LittleEndianDataOutputStream;
 import org.cloudburstmc.protocol.bedrock.BedrockSession;
 import org.cloudburstmc.protocol.bedrock.data.biome.BiomeDefinitionData;
+import org.cloudburstmc.protocol.bedrock.data.SubChunkData;
+import org.cloudburstmc.protocol.bedrock.data.SubChunkRequestResult;
 import org.cloudburstmc.protocol.bedrock.data.definitions.BlockDefinition;
 import org.cloudburstmc.protocol.bedrock.data.definitions.ItemDefinition;
 import org.cloudburstmc.protocol.bedrock.data.definitions.SimpleItemDefinition;
@@ -22,11 +24,14 @@ import org.cloudburstmc.protocol.common.DefinitionRegistry;
 import org.cloudburstmc.protocol.common.PacketSignal;
 import org.cloudburstmc.protocol.common.SimpleDefinitionRegistry;
 import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.cache.ChunkBlobCache;
+import org.cloudburstmc.proxypass.network.bedrock.jfr.DumpEvent;
+import org.cloudburstmc.proxypass.network.bedrock.logging.FlightRecorder;
+import org.cloudburstmc.proxypass.network.bedrock.util.BlockRuntimeIdTranslator;
 import org.cloudburstmc.proxypass.network.bedrock.util.NbtBlockDefinitionRegistry;
+import org.cloudburstmc.proxypass.network.bedrock.util.NbtEncodingCache;
 import org.cloudburstmc.proxypass.network.bedrock.util.RecipeUtils;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -40,6 +45,11 @@ public class DownstreamPacketHandler implements BedrockPacketHandler {
 
     private final List<NbtMap> entityProperties = new ArrayList<>();
 
+    /**
+     * Set when the client gets different block runtime IDs than the server sends.
+     */
+    private BlockRuntimeIdTranslator blockIdTranslator;
+
     @Override
     public PacketSignal handle(AvailableEntityIdentifiersPacket packet) {
         proxy.saveNBT("entity_identifiers", packet.getIdentifiers());
@@ -55,6 +65,7 @@ public class DownstreamPacketHandler implements BedrockPacketHandler {
 
     @Override
     public PacketSignal handle(BiomeDefinitionListPacket packet) {
+        player.getTimeline().begin(JoinTimeline.Phase.BIOME_DUMP);
         if (packet.getDefinitions() != null) {
             // Legacy - Versions prior to 1.21.80 (800) when client-side chunk generation is disabled
             proxy.saveNBT("biome_definitions", packet.getDefinitions());
@@ -77,6 +88,7 @@ public class DownstreamPacketHandler implements BedrockPacketHandler {
             proxy.saveJson("stripped_biome_definitions.json", strippedDefinitions);
         }
 
+        player.getTimeline().end(JoinTimeline.Phase.BIOME_DUMP);
         return PacketSignal.UNHANDLED;
     }
 
@@ -123,19 +135,118 @@ public class DownstreamPacketHandler implements BedrockPacketHandler {
         }
 
 
-        DefinitionRegistry<BlockDefinition> registry;
-        if (packet.isBlockNetworkIdsHashed()) {
-            registry = this.proxy.getBlockDefinitionsHashed();
-        } else {
-            registry = this.proxy.getBlockDefinitions();
+        boolean serverHashed = packet.isBlockNetworkIdsHashed();
+        boolean clientHashed = proxy.getConfiguration().getClientBlockIds().isHashed(serverHashed);
+        if (clientHashed != serverHashed) {
+            this.blockIdTranslator = proxy.getBlockIdTranslator(clientHashed);
+            if (this.blockIdTranslator == null) {
+                log.warn("Cannot translate block runtime IDs without a block palette, sending the server's IDs");
+                clientHashed = serverHashed;
+            }
         }
 
-        this.session.getPeer().getCodecHelper().setBlockDefinitions(registry);
-        player.getUpstream().getPeer().getCodecHelper().setBlockDefinitions(registry);
+        this.session.getPeer().getCodecHelper().setBlockDefinitions(getBlockDefinitions(serverHashed));
+        player.getUpstream().getPeer().getCodecHelper().setBlockDefinitions(getBlockDefinitions(clientHashed));
 
+        JoinTimeline timeline = player.getTimeline();
+        timeline.end(JoinTimeline.Phase.START_GAME);
+        timeline.begin(JoinTimeline.Phase.CRAFTING_DATA);
+        timeline.begin(JoinTimeline.Phase.SPAWN);
+
+        if (this.blockIdTranslator != null) {
+            packet.setBlockNetworkIdsHashed(clientHashed);
+            return forward(packet);
+        }
         return PacketSignal.UNHANDLED;
     }
 
+    private DefinitionRegistry<BlockDefinition> getBlockDefinitions(boolean hashed) {
+        return hashed ? this.proxy.getBlockDefinitionsHashed() : this.proxy.getBlockDefinitions();
+    }
+
+    @Override
+    public PacketSignal handle(LevelChunkPacket packet) {
+        if (this.blockIdTranslator == null || packet.isCachingEnabled() || packet.isRequestSubChunks()) {
+            return PacketSignal.UNHANDLED;
+        }
+        ByteBuf translated;
+        try {
+            translated = this.blockIdTranslator.translateSubChunks(packet.getData(), packet.getSubChunksLength());
+        } catch (RuntimeException e) {
+            log.debug("Unable to translate chunk {}, {}", packet.getChunkX(), packet.getChunkZ(), e);
+            return PacketSignal.UNHANDLED;
+        }
+        packet.getData().release();
+        packet.setData(translated);
+        return forward(packet);
+    }
+
+    @Override
+    public PacketSignal handle(SubChunkPacket packet) {
+        if (this.blockIdTranslator == null || packet.isCacheEnabled()) {
+            return PacketSignal.UNHANDLED;
+        }
+        for (SubChunkData subChunk : packet.getSubChunks()) {
+            if (subChunk.getResult() != SubChunkRequestResult.SUCCESS || !subChunk.getData().isReadable()) {
+                continue;
+            }
+            try {
+                ByteBuf translated = this.blockIdTranslator.translateSubChunks(subChunk.getData(), 1);
+                subChunk.getData().release();
+                subChunk.setData(translated);
+            } catch (RuntimeException e) {
+                log.debug("Unable to translate sub-chunk at {}", subChunk.getPosition(), e);
+            }
+        }
+        return forward(packet);
+    }
+
+    @Override
+    public PacketSignal handle(UpdateBlockPacket packet) {
+        if (this.blockIdTranslator == null) {
+            return PacketSignal.UNHANDLED;
+        }
+        packet.setDefinition(this.blockIdTranslator.translate(packet.getDefinition()));
+        return forward(packet);
+    }
+
+    @Override
+    public PacketSignal handle(UpdateBlockSyncedPacket packet) {
+        if (this.blockIdTranslator == null) {
+            return PacketSignal.UNHANDLED;
+        }
+        packet.setDefinition(this.blockIdTranslator.translate(packet.getDefinition()));
+        return forward(packet);
+    }
+
+    @Override
+    public PacketSignal handle(UpdateSubChunkBlocksPacket packet) {
+        if (this.blockIdTranslator == null) {
+            return PacketSignal.UNHANDLED;
+        }
+        packet.getStandardBlocks().replaceAll(this.blockIdTranslator::translate);
+        packet.getExtraBlocks().replaceAll(this.blockIdTranslator::translate);
+        return forward(packet);
+    }
+
+    @Override
+    public PacketSignal handle(ClientCacheMissResponsePacket packet) {
+        ChunkBlobCache blobCache = proxy.getBlobCache();
+        if (blobCache != null) {
+            packet.getBlobs().forEach(blobCache::put);
+        }
+        return PacketSignal.UNHANDLED;
+    }
+
+    /**
+     * Sends a packet that was changed by the proxy, instead of the bytes received from the server.
+     */
+    private PacketSignal forward(BedrockPacket packet) {
+        // The received packet is released once handled, the copy being sent needs its own reference.
+        player.getUpstream().sendPacket(ReferenceCountUtil.retain(packet));
+        return PacketSignal.HANDLED;
+    }
+
     @Override
     public PacketSignal handle(SyncEntityPropertyPacket packet) {
         entityProperties.add(packet.getData());
@@ -181,7 +292,37 @@ public class DownstreamPacketHandler implements BedrockPacketHandler {
 
     @Override
     public PacketSignal handle(CraftingDataPacket packet) {
-        RecipeUtils.writeRecipes(packet, this.proxy);
+        player.getTimeline().end(JoinTimeline.Phase.CRAFTING_DATA);
+        // Conversion of large recipe lists is too slow to do on the event loop.
+        player.getTasks().execute(() -> {
+            DumpEvent event = new DumpEvent();
+            event.begin();
+            player.getTimeline().begin(JoinTimeline.Phase.RECIPE_DUMP);
+            // Conversion and writing continue on other threads, the phase ends once the file is complete.
+            RecipeUtils.writeRecipes(packet, this.proxy).whenComplete((ignored, throwable) -> {
+                player.getTimeline().end(JoinTimeline.Phase.RECIPE_DUMP);
+                event.finish("recipes");
+            });
+        });
+        return PacketSignal.UNHANDLED;
+    }
+
+    @Override
+    public void onDisconnect(CharSequence reason) {
+        if (!FlightRecorder.isNormalDisconnect(reason)) {
+            player.dumpFlightRecorder("downstream " + reason);
+        }
+    }
+
+    @Override
+    public PacketSignal handle(PlayStatusPacket packet) {
+        if (packet.getStatus() == PlayStatusPacket.Status.PLAYER_SPAWN) {
+            JoinTimeline timeline = player.getTimeline();
+            timeline.end(JoinTimeline.Phase.SPAWN);
+            if (timeline.end(JoinTimeline.Phase.TOTAL)) {
+                log.debug("{} joined: {}", player.getIdentityData().displayName, timeline);
+            }
+        }
         return PacketSignal.UNHANDLED;
     }
 
@@ -193,31 +334,36 @@ public class DownstreamPacketHandler implements BedrockPacketHandler {
     }
 
     private void dumpCreativeItems(List<CreativeItemGroup> groups, List<CreativeItemData> contents) {
+        DumpEvent event = new DumpEvent();
+        event.begin();
+        NbtEncodingCache nbtCache = new NbtEncodingCache();
         List<CreativeGroup> groupEntries = new ArrayList<>();
         for (CreativeItemGroup group : groups) {
             String categoryName = group.getCategory().name().toLowerCase();
             String name = group.getName();
-            groupEntries.add(new CreativeGroup(name, categoryName, createCreativeItemEntry(group.getIcon())));
+            groupEntries.add(new CreativeGroup(name, categoryName, createCreativeItemEntry(group.getIcon(), nbtCache)));
         }
 
         List<CreativeItemEntry> entries = new ArrayList<>();
         for (CreativeItemData content : contents) {
-            entries.add(createCreativeItemEntry(content.getItem(), content.getGroupId()));
+            entries.add(createCreativeItemEntry(content.getItem(), content.getGroupId(), nbtCache));
         }
 
         Map<String, Object> items = new HashMap<>();
         items.put("groups", groupEntries);
         items.put("items", entries);
 
+        nbtCache.logStats("creative items");
         proxy.saveJson("creative_items.json", items);
+        event.finish("creative items");
     }
 
-    private CreativeItemEntry createCreativeItemEntry(ItemData data, int groupId) {
-        ItemEntry entry = createCreativeItemEntry(data);
+    private CreativeItemEntry createCreativeItemEntry(ItemData data, int groupId, NbtEncodingCache nbtCache) {
+        ItemEntry entry = createCreativeItemEntry(data, nbtCache);
         return new CreativeItemEntry(entry.getId(), entry.getDamage(), entry.getBlockRuntimeId(), entry.getBlockTag(), entry.getNbt(), groupId);
     }
 
-    private ItemEntry createCreativeItemEntry(ItemData data) {
+    private ItemEntry createCreativeItemEntry(ItemData data, NbtEncodingCache nbtCache) {
         ItemDefinition entry = data.getDefinition();
         String id = entry.getIdentifier();
         Integer damage = data.getDamage() == 0 ? null : (int) data.getDamage();
@@ -225,26 +371,26 @@ public class DownstreamPacketHandler implements BedrockPacketHandler {
         String blockTag = null;
         Integer blockRuntimeId = null;
         if (data.getBlockDefinition() instanceof NbtBlockDefinitionRegistry.NbtBlockDefinition definition) {
-            blockTag = encodeNbtToString(definition.tag());
+            blockTag = nbtCache.encode(definition.tag());
         } else if (data.getBlockDefinition() != null) {
             blockRuntimeId = data.getBlockDefinition().getRuntimeId();
         }
 
-        NbtMap tag = data.getTag();
-        String tagData = null;
-        if (tag != null) {
-            tagData = encodeNbtToString(tag);
-        }
+        String tagData = nbtCache.encode(data.getTag());
         return new ItemEntry(id, damage, blockRuntimeId, blockTag, tagData);
     }
 
     @Override
     public PacketSignal handle(CreativeContentPacket packet) {
-        try {
-            dumpCreativeItems(packet.getGroups(), packet.getContents());
-        } catch (Exception e) {
-            log.error("Failed to dump creative contents", e);
-        }
+        player.getTasks().execute(() -> {
+            try {
+                player.getTimeline().begin(JoinTimeline.Phase.CREATIVE_DUMP);
+                dumpCreativeItems(packet.getGroups(), packet.getContents());
+                player.getTimeline().end(JoinTimeline.Phase.CREATIVE_DUMP);
+            } catch (Exception e) {
+                log.error("Failed to dump creative contents", e);
+            }
+        });
         return PacketSignal.UNHANDLED;
     }
 
@@ -258,16 +404,6 @@ public class DownstreamPacketHandler implements BedrockPacketHandler {
                         LinkedHashMap::new));
     }
 
-    private static String encodeNbtToString(NbtMap tag) {
-        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-             NBTOutputStream stream = new NBTOutputStream(new LittleEndianDataOutputStream(byteArrayOutputStream))) {
-            stream.writeTag(tag);
-            return Base64.getEncoder().encodeToString(byteArrayOutputStream.toByteArray());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     @EqualsAndHashCode(callSuper = true)
     @Value
     @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -0,0 +1,140 @@
+package org.cloudburstmc.proxypass.network.bedrock.session;
+
+import org.cloudburstmc.proxypass.network.bedrock.util.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * How long each step of one player joining took, from the client connecting until it spawns. Every finished step
+ * is also added to a histogram shared by all sessions, so slow steps stand out across many joins.
+ */
+public class JoinTimeline {
+    private static final Map<Phase, LatencyHistogram> HISTOGRAMS = new EnumMap<>(Phase.class);
+
+    static {
+        for (Phase phase : Phase.values()) {
+            HISTOGRAMS.put(phase, new LatencyHistogram());
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final long origin = System.nanoTime();
+    // Start times (nanoseconds after origin, plus one) while a phase runs, then its duration negated so it can't be
+    // ended twice. 0 if never started.
+    private final AtomicLongArray phases = new AtomicLongArray(PHASES.length);
+
+    JoinTimeline() {
+        begin(Phase.TOTAL);
+        begin(Phase.NETWORK_SETTINGS);
+    }
+
+    private long now() {
+        return System.nanoTime() - origin + 1;
+    }
+
+    public void begin(Phase phase) {
+        phases.compareAndSet(phase.ordinal(), 0, now());
+    }
+
+    /**
+     * @return false if the phase was not started or has already ended
+     */
+    public boolean end(Phase phase) {
+        long start = phases.get(phase.ordinal());
+        if (start <= 0) {
+            return false;
+        }
+        long duration = Math.max(1, now() - start);
+        if (!phases.compareAndSet(phase.ordinal(), start, -duration)) {
+            return false;
+        }
+        HISTOGRAMS.get(phase).record(duration, TimeUnit.NANOSECONDS);
+        return true;
+    }
+
+    /**
+     * @return durations of the finished phases of all joins since startup, by phase
+     */
+    public static Map<Phase, LatencyHistogram> getHistograms() {
+        return HISTOGRAMS;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Phase phase : PHASES) {
+            long value = phases.get(phase.ordinal());
+            if (value < 0) {
+                if (!builder.isEmpty()) {
+                    builder.append(", ");
+                }
+                builder.append(phase.getName()).append(' ').append(TimeUnit.NANOSECONDS.toMillis(-value)).append(" ms");
+            }
+        }
+        return builder.toString();
+    }
+
+    public enum Phase {
+        /**
+         * Client connecting until the proxy answered its RequestNetworkSettings.
+         */
+        NETWORK_SETTINGS,
+        /**
+         * Validating the client's login chain and skin data.
+         */
+        LOGIN,
+        /**
+         * Generating the key pair the proxy logs in to the destination with.
+         */
+        KEY_GENERATION,
+        /**
+         * RakNet connection to the destination.
+         */
+        CONNECT,
+        /**
+         * Destination answering the forged login with its handshake.
+         */
+        SERVER_LOGIN,
+        /**
+         * Setting up encryption from the destination's handshake.
+         */
+        ENCRYPTION,
+        /**
+         * Encryption being set up until StartGame has been handled.
+         */
+        START_GAME,
+        /**
+         * StartGame until the CraftingData packet arrives.
+         */
+        CRAFTING_DATA,
+        /**
+         * Writing the recipe dump, off the event loop.
+         */
+        RECIPE_DUMP,
+        /**
+         * Writing the creative item dump, off the event loop.
+         */
+        CREATIVE_DUMP,
+        /**
+         * Converting the biome definitions for their dumps.
+         */
+        BIOME_DUMP,
+        /**
+         * StartGame until the destination tells the client to spawn.
+         */
+        SPAWN,
+        /**
+         * Client connecting until it spawns.
+         */
+        TOTAL;
+
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+}
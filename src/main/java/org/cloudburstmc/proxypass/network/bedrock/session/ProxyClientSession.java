@@ -11,7 +11,9 @@ import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
 import org.cloudburstmc.protocol.bedrock.packet.BedrockPacket;
 import org.cloudburstmc.protocol.bedrock.packet.UnknownPacket;
 import org.cloudburstmc.protocol.common.PacketSignal;
+import org.cloudburstmc.proxypass.EventLoopWatchdog;
 import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.jfr.PacketEvent;
 import org.cloudburstmc.proxypass.network.bedrock.util.TestUtils;
 
 @Getter
@@ -33,15 +35,29 @@ public class ProxyClientSession extends BedrockClientSession implements ProxySes
 
     @Override
     protected void onPacket(BedrockPacketWrapper wrapper) {
+        EventLoopWatchdog.Activity activity = EventLoopWatchdog.activity();
+        activity.begin(wrapper.getPacket().getClass(), player.getIdentityData().displayName);
+        try {
+            processPacket(wrapper);
+        } finally {
+            activity.end();
+        }
+    }
+
+    private void processPacket(BedrockPacketWrapper wrapper) {
+        PacketEvent event = new PacketEvent();
+        event.begin();
         BedrockPacket packet = wrapper.getPacket();
-        player.logger.logPacket(this, packet, false);
+        player.recordPacket(wrapper, false);
+        player.logger.logPacket(this, wrapper, false);
         if (proxyPass.getConfiguration().isPacketTesting()) {
             TestUtils.testPacket(this, wrapper);
         }
 
+        PacketSignal signal = null;
         if (this.packetHandler == null) {
             log.warn("Received packet without a packet handler for {}:{}: {}", new Object[]{this.getSocketAddress(), this.subClientId, packet});
-        } else if (this.packetHandler.handlePacket(packet) == PacketSignal.UNHANDLED && this.sendSession != null) {
+        } else if ((signal = dispatchPacket(packet)) == PacketSignal.UNHANDLED && this.sendSession != null) {
             // this.sendSession.sendPacket(ReferenceCountUtil.retain(packet));
 
             ByteBuf buffer = wrapper.getPacketBuffer()
@@ -53,5 +69,26 @@ public class ProxyClientSession extends BedrockClientSession implements ProxySes
             sendPacket.setPacketId(wrapper.getPacketId());
             this.sendSession.sendPacket(sendPacket);
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.packetId = wrapper.getPacketId();
+            event.packetType = packet.getClass().getSimpleName();
+            event.size = wrapper.getPacketBuffer().readableBytes() - wrapper.getHeaderLength();
+            event.serverbound = false;
+            event.handled = signal == PacketSignal.HANDLED;
+            event.session = player.getIdentityData().displayName;
+            event.commit();
+        }
+    }
+
+    private PacketSignal dispatchPacket(BedrockPacket packet) {
+        try {
+            return this.packetHandler.handlePacket(packet);
+        } catch (RuntimeException e) {
+            if (player != null) {
+                player.dumpFlightRecorder("exception");
+            }
+            throw e;
+        }
     }
 }
@@ -3,12 +3,18 @@ package org.cloudburstmc.proxypass.network.bedrock.session;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
 import org.cloudburstmc.protocol.bedrock.util.ChainValidationResult;
 import org.cloudburstmc.protocol.bedrock.util.EncryptionUtils;
+import org.cloudburstmc.proxypass.BlockingExecutor;
+import org.cloudburstmc.proxypass.Configuration;
 import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.logging.FlightRecorder;
 import org.cloudburstmc.proxypass.network.bedrock.logging.SessionLogger;
 
+import java.nio.ByteBuffer;
 import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
 
 @Log4j2
 @Getter
@@ -19,16 +25,28 @@ public class ProxyPlayerSession {
     private final ChainValidationResult.IdentityData identityData;
     private final long timestamp = System.currentTimeMillis();
     @Getter(AccessLevel.PACKAGE)
-    private final KeyPair proxyKeyPair = EncryptionUtils.createKeyPair();
+    private final KeyPair proxyKeyPair;
     private volatile boolean closed = false;
 
     public final SessionLogger logger;
+    private final BlockingExecutor.Scope tasks;
+    /**
+     * Null if disabled.
+     */
+    @Getter(AccessLevel.NONE)
+    private final FlightRecorder flightRecorder;
+    private final TrafficStats traffic = new TrafficStats();
+    @Getter(AccessLevel.NONE)
+    private final Backpressure backpressure;
 
     public ProxyPlayerSession(ProxyServerSession upstream, ProxyClientSession downstream, ProxyPass proxy, ChainValidationResult.IdentityData identityData) {
         this.upstream = upstream;
         this.downstream = downstream;
         this.proxy = proxy;
         this.identityData = identityData;
+        getTimeline().begin(JoinTimeline.Phase.KEY_GENERATION);
+        this.proxyKeyPair = EncryptionUtils.createKeyPair();
+        getTimeline().end(JoinTimeline.Phase.KEY_GENERATION);
 //        this.upstream.addDisconnectHandler(reason -> {
 //            if (reason != DisconnectReason.DISCONNECTED) {
 //                this.downstream.disconnect();
@@ -41,5 +59,111 @@ public class ProxyPlayerSession {
                 timestamp
         );
         logger.start();
+        this.tasks = proxy.getBlockingExecutor().newScope(this.identityData.displayName);
+
+        Configuration configuration = proxy.getConfiguration();
+        this.flightRecorder = configuration.getFlightRecorderSize() > 0 ? new FlightRecorder(configuration.getFlightRecorderSize() * 1024,
+                TimeUnit.SECONDS.toMillis(configuration.getFlightRecorderSeconds())) : null;
+        this.backpressure = new Backpressure(upstream.getPeer().getChannel(), downstream.getPeer().getChannel(),
+                configuration.getLowWaterMark(), configuration.getHighWaterMark());
+
+        proxy.getPlayers().add(this);
+        upstream.getPeer().getChannel().closeFuture().addListener(future -> this.close());
+        downstream.getPeer().getChannel().closeFuture().addListener(future -> this.close());
+    }
+
+    public JoinTimeline getTimeline() {
+        return upstream.getTimeline();
+    }
+
+    void recordPacket(BedrockPacketWrapper wrapper, boolean upstream) {
+        traffic.record(wrapper, upstream);
+        if (flightRecorder != null) {
+            flightRecorder.record(wrapper, upstream);
+        }
+    }
+
+    /**
+     * @return memory currently held on behalf of this session
+     */
+    public MemoryUsage getMemoryUsage() {
+        return new MemoryUsage(Backpressure.pendingBytes(upstream.getPeer().getChannel()) + backpressure.getHeldBytes(),
+                Backpressure.pendingBytes(downstream.getPeer().getChannel()), logger.getBufferedBytes(),
+                flightRecorder == null ? 0 : flightRecorder.getCapacity());
+    }
+
+    /**
+     * @return rough amount of heap kept alive by this session for as long as it is connected
+     */
+    public long estimateRetainedHeap() {
+        return logger.getBufferedBytes() + logger.getIndexSize();
+    }
+
+    /**
+     * Writes the recently seen packets of this session to its folder.
+     *
+     * @param reason why the dump was made, becomes part of the file name
+     */
+    public void dumpFlightRecorder(String reason) {
+        if (flightRecorder == null) {
+            return;
+        }
+        ByteBuffer dump = flightRecorder.snapshot();
+        if (dump == null) {
+            return;
+        }
+        log.info("Dumping {} recent packets of {} ({})", flightRecorder.getRecordCount(), identityData.displayName, reason);
+        String fileName = "flight_" + System.currentTimeMillis() + '_' + reason.replaceAll("[^A-Za-z0-9.-]", "_") + ".bin";
+        tasks.execute(() -> logger.saveData(fileName, dump));
+    }
+
+    /**
+     * Called from the upstream packet handler once the client connection is gone, which happens after every other
+     * disconnect handler of this session.
+     */
+    void onUpstreamDisconnect(CharSequence reason) {
+        if (!FlightRecorder.isNormalDisconnect(reason)) {
+            dumpFlightRecorder(reason.toString());
+        }
+        if (flightRecorder != null) {
+            flightRecorder.release();
+        }
+    }
+
+    /**
+     * @param clientQueued bytes held back by backpressure or waiting in the channel to the client
+     * @param serverQueued bytes waiting in the channel to the destination
+     * @param logBuffer    packet log output waiting to be written to disk
+     * @param flightRecorder off-heap flight recorder buffer
+     */
+    public record MemoryUsage(long clientQueued, long serverQueued, long logBuffer, long flightRecorder) {
+        public long total() {
+            return clientQueued + serverQueued + logBuffer + flightRecorder;
+        }
+    }
+
+    /**
+     * Called once either side of the proxy goes away. Tears down the other side and releases everything held by
+     * this session.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        log.debug("Closing proxy session for {}", identityData.displayName);
+
+        if (upstream.isConnected()) {
+            upstream.disconnect();
+        }
+        if (downstream.isConnected()) {
+            downstream.disconnect();
+        }
+
+        // Let pending dumps into the session directory finish before the final flush.
+        tasks.close().whenComplete((ignored, throwable) -> logger.close());
+        proxy.getPlayers().remove(this);
     }
 }
@@ -11,7 +11,9 @@ import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
 import org.cloudburstmc.protocol.bedrock.packet.BedrockPacket;
 import org.cloudburstmc.protocol.bedrock.packet.UnknownPacket;
 import org.cloudburstmc.protocol.common.PacketSignal;
+import org.cloudburstmc.proxypass.EventLoopWatchdog;
 import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.jfr.PacketEvent;
 import org.cloudburstmc.proxypass.network.bedrock.util.TestUtils;
 
 @Getter
@@ -23,26 +25,52 @@ public class ProxyServerSession extends BedrockServerSession implements ProxySes
     private BedrockSession sendSession;
     @Setter
     private ProxyPlayerSession player;
+    /**
+     * Null if admission control rejected this connection.
+     */
+    @Setter
+    private AdmissionControl.Handshake handshake;
+    private final JoinTimeline timeline = new JoinTimeline();
 
     public ProxyServerSession(BedrockPeer peer, int subClientId, ProxyPass proxyPass) {
         super(peer, subClientId);
         this.proxyPass = proxyPass;
     }
 
+    public void finishHandshake() {
+        if (this.handshake != null) {
+            this.handshake.finish();
+        }
+    }
+
     @Override
     protected void onPacket(BedrockPacketWrapper wrapper) {
+        EventLoopWatchdog.Activity activity = EventLoopWatchdog.activity();
+        activity.begin(wrapper.getPacket().getClass(), player != null ? player.getIdentityData().displayName : null);
+        try {
+            processPacket(wrapper);
+        } finally {
+            activity.end();
+        }
+    }
+
+    private void processPacket(BedrockPacketWrapper wrapper) {
+        PacketEvent event = new PacketEvent();
+        event.begin();
         BedrockPacket packet = wrapper.getPacket();
         if (player != null) {
-            player.logger.logPacket(this, packet, true);
+            player.recordPacket(wrapper, true);
+            player.logger.logPacket(this, wrapper, true);
         }
 
         if (proxyPass.getConfiguration().isPacketTesting()) {
             TestUtils.testPacket(this, wrapper);
         }
 
+        PacketSignal signal = null;
         if (this.packetHandler == null) {
             log.warn("Received packet without a packet handler for {}:{}: {}", new Object[]{this.getSocketAddress(), this.subClientId, packet});
-        } else if (this.packetHandler.handlePacket(packet) == PacketSignal.UNHANDLED && this.sendSession != null) {
+        } else if ((signal = dispatchPacket(packet)) == PacketSignal.UNHANDLED && this.sendSession != null) {
             // this.sendSession.sendPacket(ReferenceCountUtil.retain(packet));
 
             ByteBuf buffer = wrapper.getPacketBuffer()
@@ -54,5 +82,26 @@ public class ProxyServerSession extends BedrockServerSession implements ProxySes
             sendPacket.setPacketId(wrapper.getPacketId());
             this.sendSession.sendPacket(sendPacket);
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.packetId = wrapper.getPacketId();
+            event.packetType = packet.getClass().getSimpleName();
+            event.size = wrapper.getPacketBuffer().readableBytes() - wrapper.getHeaderLength();
+            event.serverbound = true;
+            event.handled = signal == PacketSignal.HANDLED;
+            event.session = player != null ? player.getIdentityData().displayName : String.valueOf(this.getSocketAddress());
+            event.commit();
+        }
+    }
+
+    private PacketSignal dispatchPacket(BedrockPacket packet) {
+        try {
+            return this.packetHandler.handlePacket(packet);
+        } catch (RuntimeException e) {
+            if (player != null) {
+                player.dumpFlightRecorder("exception");
+            }
+            throw e;
+        }
     }
 }
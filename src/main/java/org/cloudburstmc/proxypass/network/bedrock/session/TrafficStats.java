@@ -0,0 +1,105 @@
+package org.cloudburstmc.proxypass.network.bedrock.session;
+
+import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Packet and byte counts of one player's connection, plus totals per packet type across all players. Counters
+ * only ever grow, rates are worked out by whoever reads them by comparing two readings.
+ */
+public class TrafficStats {
+    // The packet header only has 10 bits for the ID.
+    private static final int MAX_PACKET_ID = 1 << 10;
+    private static final AtomicReferenceArray<TypeCounter> TYPES = new AtomicReferenceArray<>(MAX_PACKET_ID * 2);
+
+    private final LongAdder serverboundPackets = new LongAdder();
+    private final LongAdder serverboundBytes = new LongAdder();
+    private final LongAdder clientboundPackets = new LongAdder();
+    private final LongAdder clientboundBytes = new LongAdder();
+
+    void record(BedrockPacketWrapper wrapper, boolean upstream) {
+        int size = wrapper.getPacketBuffer() == null ? 0 : wrapper.getPacketBuffer().readableBytes();
+        if (upstream) {
+            serverboundPackets.increment();
+            serverboundBytes.add(size);
+        } else {
+            clientboundPackets.increment();
+            clientboundBytes.add(size);
+        }
+
+        int packetId = wrapper.getPacketId();
+        if (packetId < 0 || packetId >= MAX_PACKET_ID) {
+            return;
+        }
+        int index = packetId * 2 + (upstream ? 1 : 0);
+        TypeCounter counter = TYPES.get(index);
+        if (counter == null) {
+            TYPES.compareAndSet(index, null, new TypeCounter(wrapper.getPacket().getClass().getSimpleName(), upstream));
+            counter = TYPES.get(index);
+        }
+        counter.packets.increment();
+        counter.bytes.add(size);
+    }
+
+    public long getServerboundPackets() {
+        return serverboundPackets.sum();
+    }
+
+    public long getServerboundBytes() {
+        return serverboundBytes.sum();
+    }
+
+    public long getClientboundPackets() {
+        return clientboundPackets.sum();
+    }
+
+    public long getClientboundBytes() {
+        return clientboundBytes.sum();
+    }
+
+    /**
+     * @return counters of every packet type seen since startup
+     */
+    public static List<TypeCounter> getTypes() {
+        List<TypeCounter> types = new ArrayList<>();
+        for (int i = 0; i < TYPES.length(); i++) {
+            TypeCounter counter = TYPES.get(i);
+            if (counter != null) {
+                types.add(counter);
+            }
+        }
+        return types;
+    }
+
+    public static class TypeCounter {
+        private final String name;
+        private final boolean serverbound;
+        private final LongAdder packets = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        private TypeCounter(String name, boolean serverbound) {
+            this.name = name;
+            this.serverbound = serverbound;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isServerbound() {
+            return serverbound;
+        }
+
+        public long getPackets() {
+            return packets.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+    }
+}
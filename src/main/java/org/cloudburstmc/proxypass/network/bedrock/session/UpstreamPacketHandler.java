@@ -1,5 +1,8 @@
 package org.cloudburstmc.proxypass.network.bedrock.session;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCounted;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.cloudburstmc.protocol.bedrock.data.EncodingSettings;
@@ -12,6 +15,10 @@ import org.cloudburstmc.protocol.bedrock.util.ChainValidationResult.IdentityClai
 import org.cloudburstmc.protocol.bedrock.util.EncryptionUtils;
 import org.cloudburstmc.protocol.common.PacketSignal;
 import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.cache.ChunkBlobCache;
+import org.cloudburstmc.proxypass.network.bedrock.jfr.LoginPhaseEvent;
+import org.cloudburstmc.proxypass.network.bedrock.routing.Destination;
+import org.cloudburstmc.proxypass.network.bedrock.util.BlockIdFormat;
 import org.cloudburstmc.proxypass.network.bedrock.util.ForgeryUtils;
 import org.cloudburstmc.proxypass.network.bedrock.util.SkinUtils;
 import org.jose4j.json.JsonUtil;
@@ -29,9 +36,6 @@ public class UpstreamPacketHandler implements BedrockPacketHandler {
 
     private final ProxyServerSession session;
     private final ProxyPass proxy;
-    private JSONObject skinData;
-    private ChainValidationResult chain;
-    private String clientJwt;
     private ProxyPlayerSession player;
 
     private static boolean verifyJwt(String jwt, PublicKey key) throws JoseException {
@@ -44,6 +48,14 @@ public class UpstreamPacketHandler implements BedrockPacketHandler {
 
     @Override
     public PacketSignal handle(RequestNetworkSettingsPacket packet) {
+        if (session.getHandshake() == null) {
+            PlayStatusPacket status = new PlayStatusPacket();
+            status.setStatus(PlayStatusPacket.Status.FAILED_SERVER_FULL);
+            session.sendPacketImmediately(status);
+            session.disconnect("disconnectionScreen.serverFull");
+            return PacketSignal.HANDLED;
+        }
+
         int protocolVersion = packet.getProtocolVersion();
 
         if (protocolVersion != ProxyPass.PROTOCOL_VERSION) {
@@ -65,15 +77,25 @@ public class UpstreamPacketHandler implements BedrockPacketHandler {
 
         session.sendPacketImmediately(networkSettingsPacket);
         session.setCompression(PacketCompressionAlgorithm.ZLIB);
+        session.getTimeline().end(JoinTimeline.Phase.NETWORK_SETTINGS);
         return PacketSignal.HANDLED;
     }
 
     @Override
     public PacketSignal handle(LoginPacket packet) {
-        try {
-            chain = EncryptionUtils.validatePayload(packet.getAuthPayload());
-            clientJwt = packet.getClientJwt();
+        if (session.getHandshake() == null) {
+            // Client skipped RequestNetworkSettings, don't do any login work for it either.
+            session.disconnect("disconnectionScreen.serverFull");
+            return PacketSignal.HANDLED;
+        }
 
+        LoginPhaseEvent event = new LoginPhaseEvent();
+        event.begin();
+        session.getTimeline().begin(JoinTimeline.Phase.LOGIN);
+        boolean validated = false;
+        try {
+            // Only the identity is kept past this method, the full chain and skin data go once the login is forged.
+            ChainValidationResult chain = EncryptionUtils.validatePayload(packet.getAuthPayload());
             IdentityClaims claims = chain.identityClaims();
 
             ECPublicKey identityPublicKey = (ECPublicKey) claims.parsedIdentityPublicKey();
@@ -83,44 +105,105 @@ public class UpstreamPacketHandler implements BedrockPacketHandler {
             JsonWebSignature jws = new JsonWebSignature();
             jws.setCompactSerialization(clientJwt);
 
-            skinData = new JSONObject(JsonUtil.parseJson(jws.getUnverifiedPayload()));
-            initializeProxySession();
+            JSONObject skinData = new JSONObject(JsonUtil.parseJson(jws.getUnverifiedPayload()));
+            validated = true;
+            session.getTimeline().end(JoinTimeline.Phase.LOGIN);
+            event.finish("login", claims.extraData.displayName, true);
+            initializeProxySession(claims.extraData, skinData);
         } catch (Exception e) {
+            if (!validated) {
+                event.finish("login", String.valueOf(session.getSocketAddress()), false);
+            }
             session.disconnect("disconnectionScreen.internalError.cantConnect");
             throw new RuntimeException("Unable to complete login", e);
         }
         return PacketSignal.HANDLED;
     }
 
-    private void initializeProxySession() {
+    @Override
+    public PacketSignal handle(ClientCacheStatusPacket packet) {
+        // Cached chunks are sent as blobs the translation cannot reach, make the server send them in full.
+        if (packet.isSupported() && proxy.getConfiguration().getClientBlockIds() != BlockIdFormat.SERVER
+                && this.session.getSendSession() != null) {
+            packet.setSupported(false);
+            this.session.getSendSession().sendPacket(packet);
+            return PacketSignal.HANDLED;
+        }
+        return PacketSignal.UNHANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(ClientCacheBlobStatusPacket packet) {
+        ChunkBlobCache blobCache = proxy.getBlobCache();
+        if (blobCache == null || packet.getNaks().isEmpty() || this.session.getSendSession() == null) {
+            return PacketSignal.UNHANDLED;
+        }
+
+        ClientCacheMissResponsePacket response = new ClientCacheMissResponsePacket();
+        LongIterator iterator = packet.getNaks().iterator();
+        while (iterator.hasNext()) {
+            long blobId = iterator.nextLong();
+            ByteBuf blob = blobCache.get(blobId);
+            if (blob != null) {
+                response.getBlobs().put(blobId, blob);
+                iterator.remove();
+                packet.getAcks().add(blobId);
+            }
+        }
+        if (response.getBlobs().isEmpty()) {
+            return PacketSignal.UNHANDLED;
+        }
+
+        // Answer what the proxy has, the server only gets asked for the rest. Sent immediately so the blobs are
+        // encoded before this returns. The encoder only releases packets that are ReferenceCounted, anything else
+        // leaves the retained blobs to us, as does a send that fails before reaching the encoder.
+        boolean encoded = false;
+        try {
+            this.session.sendPacketImmediately(response);
+            encoded = true;
+        } finally {
+            if (!encoded || !(response instanceof ReferenceCounted)) {
+                response.getBlobs().values().forEach(ByteBuf::release);
+            }
+        }
+        this.session.getSendSession().sendPacket(packet);
+        return PacketSignal.HANDLED;
+    }
+
+    private void initializeProxySession(ChainValidationResult.IdentityData identityData, JSONObject skinData) {
         log.debug("Initializing proxy session");
-        this.proxy.newClient(this.proxy.getTargetAddress(), downstream -> {
+        Destination destination = this.proxy.getRouter().select(identityData);
+        LoginPhaseEvent connectEvent = new LoginPhaseEvent();
+        connectEvent.begin();
+        this.session.getTimeline().begin(JoinTimeline.Phase.CONNECT);
+        this.proxy.newClient(this.session.getPeer().getChannel().eventLoop(), destination, downstream -> {
             downstream.setCodec(ProxyPass.CODEC);
             downstream.setSendSession(this.session);
             downstream.getPeer().getCodecHelper().setEncodingSettings(EncodingSettings.CLIENT);
             this.session.setSendSession(downstream);
 
-            ProxyPlayerSession proxySession = new ProxyPlayerSession(this.session, downstream, this.proxy, this.chain.identityClaims().extraData);
+            ProxyPlayerSession proxySession = new ProxyPlayerSession(this.session, downstream, this.proxy, identityData);
             this.player = proxySession;
 
             downstream.setPlayer(proxySession);
             this.session.setPlayer(proxySession);
 
-            try {
-                JsonWebSignature jws = new JsonWebSignature();
-                jws.setCompactSerialization(clientJwt);
-                player.getLogger().saveJson("chainData", new JSONObject(JsonUtil.parseJson(jws.getUnverifiedPayload())));
-                player.getLogger().saveJson("skinData", this.skinData);
-                SkinUtils.saveSkin(proxySession, this.skinData);
-            } catch (Exception e) {
-                log.error("JSON output error: " + e.getMessage(), e);
-            }
-            String authToken = ForgeryUtils.forgeToken(proxySession.getProxyKeyPair(), this.chain.identityClaims().extraData);
-            String skinData = ForgeryUtils.forgeSkinData(proxySession.getProxyKeyPair(), this.skinData);
+            proxySession.getTasks().execute(() -> {
+                try {
+                    // chainData has always been the client JWT payload, which is what skinData was parsed from.
+                    proxySession.getLogger().saveJson("chainData", skinData);
+                    proxySession.getLogger().saveJson("skinData", skinData);
+                    SkinUtils.saveSkin(proxySession, skinData);
+                } catch (Exception e) {
+                    log.error("JSON output error: " + e.getMessage(), e);
+                }
+            });
+            String authToken = ForgeryUtils.forgeToken(proxySession.getProxyKeyPair(), identityData);
+            String forgedSkinData = ForgeryUtils.forgeSkinData(proxySession.getProxyKeyPair(), skinData);
 
             LoginPacket login = new LoginPacket();
             login.setAuthPayload(new TokenPayload(authToken, AuthType.SELF_SIGNED));
-            login.setClientJwt(skinData);
+            login.setClientJwt(forgedSkinData);
             login.setProtocolVersion(ProxyPass.PROTOCOL_VERSION);
 
             downstream.setPacketHandler(new DownstreamInitialPacketHandler(downstream, proxySession, this.proxy, login));
@@ -129,13 +212,27 @@ public class UpstreamPacketHandler implements BedrockPacketHandler {
             RequestNetworkSettingsPacket packet = new RequestNetworkSettingsPacket();
             packet.setProtocolVersion(ProxyPass.PROTOCOL_VERSION);
             downstream.sendPacketImmediately(packet);
+            this.session.getTimeline().begin(JoinTimeline.Phase.SERVER_LOGIN);
 
-            //SkinUtils.saveSkin(proxySession, this.skinData);
+            //SkinUtils.saveSkin(proxySession, skinData);
+        }).addListener(future -> {
+            connectEvent.finish("connect", identityData.displayName, future.isSuccess());
+            if (future.isSuccess()) {
+                this.session.getTimeline().end(JoinTimeline.Phase.CONNECT);
+            }
+            if (!future.isSuccess()) {
+                log.warn("Unable to connect to {}", destination.getAddress(), future.cause());
+                this.session.disconnect("Unable to connect to the destination server");
+            }
         });
     }
 
     @Override
     public void onDisconnect(CharSequence reason) {
+        this.session.finishHandshake();
+        if (this.player != null) {
+            this.player.onUpstreamDisconnect(reason);
+        }
         if (this.session.getSendSession() != null && this.session.getSendSession().isConnected()) {
             this.session.getSendSession().disconnect(reason);
         }
@@ -0,0 +1,54 @@
+package org.cloudburstmc.proxypass.network.bedrock.util;
+
+import io.netty.buffer.*;
+import io.netty.util.internal.PlatformDependent;
+import lombok.experimental.UtilityClass;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes how much memory the Netty buffer allocator holds, and how well its pools are used.
+ */
+@UtilityClass
+public class AllocatorStats {
+    private static final double MB = 1024.0 * 1024.0;
+
+    public static List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        long usedDirect = PlatformDependent.usedDirectMemory();
+        if (usedDirect >= 0) {
+            lines.add(String.format("Direct memory: %.1f MB of %.1f MB", usedDirect / MB, PlatformDependent.maxDirectMemory() / MB));
+        }
+
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        if (!(allocator instanceof PooledByteBufAllocator pooled)) {
+            if (allocator instanceof ByteBufAllocatorMetricProvider provider) {
+                ByteBufAllocatorMetric metric = provider.metric();
+                lines.add(String.format("Allocator %s: %.1f MB direct, %.1f MB heap", allocator.getClass().getSimpleName(),
+                        metric.usedDirectMemory() / MB, metric.usedHeapMemory() / MB));
+            }
+            return lines;
+        }
+
+        PooledByteBufAllocatorMetric metric = pooled.metric();
+        lines.add(String.format("Pooled allocator: %.1f MB direct, %.1f MB heap, %d KB chunks, %d thread caches (small %d, normal %d entries)",
+                metric.usedDirectMemory() / MB, metric.usedHeapMemory() / MB, metric.chunkSize() / 1024,
+                metric.numThreadLocalCaches(), metric.smallCacheSize(), metric.normalCacheSize()));
+        List<PoolArenaMetric> arenas = metric.directArenas();
+        for (int i = 0; i < arenas.size(); i++) {
+            PoolArenaMetric arena = arenas.get(i);
+            StringBuilder chunks = new StringBuilder();
+            for (PoolChunkListMetric chunkList : arena.chunkLists()) {
+                int count = 0;
+                for (PoolChunkMetric ignored : chunkList) {
+                    count++;
+                }
+                chunks.append(String.format(" %d-%d%%: %d", chunkList.minUsage(), chunkList.maxUsage(), count));
+            }
+            lines.add(String.format("  direct arena #%d: %d threads, %d active allocations, %.1f MB active, chunks by usage%s",
+                    i, arena.numThreadCaches(), arena.numActiveAllocations(), arena.numActiveBytes() / MB, chunks));
+        }
+        return lines;
+    }
+}
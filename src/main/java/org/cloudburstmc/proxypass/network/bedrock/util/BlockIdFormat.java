@@ -0,0 +1,26 @@
+package org.cloudburstmc.proxypass.network.bedrock.util;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Block runtime IDs the proxy sends to clients. Experimental, only chunks and block updates are translated.
+ */
+public enum BlockIdFormat {
+    /**
+     * Whatever the server uses, no translation.
+     */
+    @JsonProperty("server")
+    SERVER,
+    @JsonProperty("hashed")
+    HASHED,
+    @JsonProperty("sequential")
+    SEQUENTIAL;
+
+    public boolean isHashed(boolean serverHashed) {
+        return switch (this) {
+            case SERVER -> serverHashed;
+            case HASHED -> true;
+            case SEQUENTIAL -> false;
+        };
+    }
+}
@@ -0,0 +1,156 @@
+package org.cloudburstmc.proxypass.network.bedrock.util;
+
+import io.netty.buffer.ByteBuf;
+import org.cloudburstmc.nbt.NbtMap;
+import org.cloudburstmc.protocol.bedrock.data.BlockChangeEntry;
+import org.cloudburstmc.protocol.bedrock.data.definitions.BlockDefinition;
+import org.cloudburstmc.protocol.common.DefinitionRegistry;
+import org.cloudburstmc.protocol.common.util.VarInts;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps block runtime IDs from the server's numbering to the one sent to the client, either sequential to hashed
+ * or the other way round. Both directions are backed by primitive tables built once from the block palette.
+ * IDs that are not in the palette are passed through unchanged. Only used for chunks and block updates sent to the
+ * client, block IDs inside items, entity data, level events and serverbound packets are left alone.
+ */
+public class BlockRuntimeIdTranslator {
+    private static final int BLOCKS_PER_SUB_CHUNK = 16 * 16 * 16;
+
+    private final boolean toHashed;
+    private final DefinitionRegistry<BlockDefinition> targetRegistry;
+    // Indexed by sequential ID.
+    private final int[] sequentialToHashed;
+    // Sorted hashes and the sequential ID at the same index, looked up by binary search.
+    private final int[] hashes;
+    private final int[] hashedToSequential;
+
+    private BlockRuntimeIdTranslator(boolean toHashed, DefinitionRegistry<BlockDefinition> targetRegistry,
+                                     int[] sequentialToHashed, int[] hashes, int[] hashedToSequential) {
+        this.toHashed = toHashed;
+        this.targetRegistry = targetRegistry;
+        this.sequentialToHashed = sequentialToHashed;
+        this.hashes = hashes;
+        this.hashedToSequential = hashedToSequential;
+    }
+
+    /**
+     * @param palette        block palette in sequential order
+     * @param toHashed       true if the client gets hashed IDs and the server uses sequential ones
+     * @param targetRegistry registry matching the IDs sent to the client
+     */
+    public static BlockRuntimeIdTranslator create(List<NbtMap> palette, boolean toHashed, DefinitionRegistry<BlockDefinition> targetRegistry) {
+        int[] sequentialToHashed = new int[palette.size()];
+        long[] pairs = new long[palette.size()];
+        for (int i = 0; i < palette.size(); i++) {
+            int hash = BlockPaletteUtils.createHash(palette.get(i));
+            sequentialToHashed[i] = hash;
+            pairs[i] = ((long) hash << 32) | i;
+        }
+        Arrays.sort(pairs);
+
+        int[] hashes = new int[pairs.length];
+        int[] hashedToSequential = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            hashes[i] = (int) (pairs[i] >> 32);
+            hashedToSequential[i] = (int) pairs[i];
+        }
+        return new BlockRuntimeIdTranslator(toHashed, targetRegistry, sequentialToHashed, hashes, hashedToSequential);
+    }
+
+    public int translate(int runtimeId) {
+        if (toHashed) {
+            return runtimeId >= 0 && runtimeId < sequentialToHashed.length ? sequentialToHashed[runtimeId] : runtimeId;
+        }
+        int index = Arrays.binarySearch(hashes, runtimeId);
+        return index >= 0 ? hashedToSequential[index] : runtimeId;
+    }
+
+    public BlockDefinition translate(BlockDefinition definition) {
+        if (definition == null) {
+            return null;
+        }
+        int runtimeId = translate(definition.getRuntimeId());
+        BlockDefinition translated = targetRegistry.getDefinition(runtimeId);
+        return translated != null ? translated : () -> runtimeId;
+    }
+
+    public BlockChangeEntry translate(BlockChangeEntry entry) {
+        return new BlockChangeEntry(entry.getPosition(), translate(entry.getDefinition()), entry.getUpdateFlags(),
+                entry.getMessageEntityId(), entry.getMessageType());
+    }
+
+    /**
+     * Rewrites the palettes of the sub-chunks at the start of the buffer. Block indices are copied as they are,
+     * only palette entries are decoded. Anything after the sub-chunks is copied unchanged.
+     *
+     * @return a new buffer, the given one is not modified
+     * @throws IllegalStateException if a sub-chunk is in a format that cannot be translated
+     */
+    public ByteBuf translateSubChunks(ByteBuf data, int subChunks) {
+        ByteBuf in = data.duplicate();
+        // Hashed IDs take more bytes than sequential ones, leave some room to avoid growing the buffer.
+        ByteBuf out = data.alloc().buffer(toHashed ? data.readableBytes() + (data.readableBytes() >> 3) : data.readableBytes());
+        try {
+            for (int i = 0; i < subChunks; i++) {
+                translateSubChunk(in, out);
+            }
+            out.writeBytes(in);
+            return out;
+        } catch (RuntimeException e) {
+            out.release();
+            throw e;
+        }
+    }
+
+    private void translateSubChunk(ByteBuf in, ByteBuf out) {
+        int version = in.readUnsignedByte();
+        out.writeByte(version);
+
+        int storages;
+        switch (version) {
+            case 1 -> storages = 1;
+            case 8 -> {
+                storages = in.readUnsignedByte();
+                out.writeByte(storages);
+            }
+            case 9 -> {
+                storages = in.readUnsignedByte();
+                out.writeByte(storages);
+                out.writeByte(in.readByte()); // sub-chunk index
+            }
+            default -> throw new IllegalStateException("Unsupported sub-chunk version " + version);
+        }
+
+        for (int i = 0; i < storages; i++) {
+            translateStorage(in, out);
+        }
+    }
+
+    private void translateStorage(ByteBuf in, ByteBuf out) {
+        int header = in.readUnsignedByte();
+        if ((header & 1) == 0) {
+            throw new IllegalStateException("Sub-chunk uses a persistent palette");
+        }
+        out.writeByte(header);
+
+        int bitsPerBlock = header >> 1;
+        if (bitsPerBlock == 0) {
+            // A single block, the palette size is implied.
+            VarInts.writeInt(out, translate(VarInts.readInt(in)));
+            return;
+        }
+
+        int blocksPerWord = 32 / bitsPerBlock;
+        int words = (BLOCKS_PER_SUB_CHUNK + blocksPerWord - 1) / blocksPerWord;
+        out.writeBytes(in, words * Integer.BYTES);
+
+        int paletteSize = VarInts.readInt(in);
+        VarInts.writeInt(out, paletteSize);
+        for (int i = 0; i < paletteSize; i++) {
+            VarInts.writeInt(out, translate(VarInts.readInt(in)));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.cloudburstmc.proxypass.network.bedrock.util;
+
+import lombok.experimental.UtilityClass;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+@UtilityClass
+public class FileUtils {
+
+    /**
+     * Writes to a temporary file next to the target and moves it in place once done, so readers only ever see the
+     * old or the complete new file.
+     */
+    public static void writeAtomically(Path path, Writer writer) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                writer.write(stream);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Writer {
+        void write(OutputStream stream) throws IOException;
+    }
+}
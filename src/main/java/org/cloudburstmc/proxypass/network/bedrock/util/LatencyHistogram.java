@@ -0,0 +1,83 @@
+package org.cloudburstmc.proxypass.network.bedrock.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in buckets that grow exponentially, four per power of two, so percentiles are accurate to
+ * within about 20%. Recording is lock free and never allocates.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 4;
+    // Enough for durations of a few hours in microseconds.
+    private static final int BUCKETS = SUB_BUCKETS + 40 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long duration, TimeUnit unit) {
+        long micros = Math.max(0, unit.toMicros(duration));
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, SUB_BUCKETS + (exponent - 2) * SUB_BUCKETS + subBucket);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + 2;
+        int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1L) << (exponent - 2)) - 1;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the duration in microseconds below which the given share of recorded durations fall, 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the longest recorded duration in microseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return p50, p90, p99 and max in milliseconds
+     */
+    public String summary() {
+        return String.format("p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms (%d samples)", getPercentile(50) / 1000.0,
+                getPercentile(90) / 1000.0, getPercentile(99) / 1000.0, getMax() / 1000.0, getCount());
+    }
+}
@@ -0,0 +1,30 @@
+package org.cloudburstmc.proxypass.network.bedrock.util;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.netty.util.ResourceLeakDetector;
+
+public enum LeakDetection {
+    @JsonProperty("disabled")
+    DISABLED(ResourceLeakDetector.Level.DISABLED),
+    /**
+     * Checks a sample of the buffers, reporting only that a leak happened.
+     */
+    @JsonProperty("simple")
+    SIMPLE(ResourceLeakDetector.Level.SIMPLE),
+    /**
+     * Checks a sample of the buffers, reporting where they were last accessed. Noticeably slower.
+     */
+    @JsonProperty("advanced")
+    ADVANCED(ResourceLeakDetector.Level.ADVANCED),
+    /**
+     * Checks every buffer, for debugging only.
+     */
+    @JsonProperty("paranoid")
+    PARANOID(ResourceLeakDetector.Level.PARANOID);
+
+    public final ResourceLeakDetector.Level level;
+
+    LeakDetection(ResourceLeakDetector.Level level) {
+        this.level = level;
+    }
+}
@@ -0,0 +1,16 @@
+package org.cloudburstmc.proxypass.network.bedrock.util;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public enum LogFormat {
+    @JsonProperty("text")
+    TEXT("packets.log"),
+    @JsonProperty("jsonl")
+    JSONL("packets.jsonl");
+
+    public final String fileName;
+
+    LogFormat(String fileName) {
+        this.fileName = fileName;
+    }
+}
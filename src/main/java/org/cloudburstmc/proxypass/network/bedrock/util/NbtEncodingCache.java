@@ -0,0 +1,93 @@
+package org.cloudburstmc.proxypass.network.bedrock.util;
+
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.nbt.NBTOutputStream;
+import org.cloudburstmc.nbt.NbtMap;
+import org.cloudburstmc.nbt.NbtUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the little endian base64 encoding of NBT tags for the duration of one dump. Creative items and
+ * recipes repeat the same block states and item tags thousands of times. Safe to use from several threads.
+ */
+@Log4j2
+public class NbtEncodingCache {
+    private static final int DEFAULT_MAX_SIZE = 16384;
+    // Larger buffers are not kept around, a single huge tag should not pin its buffer for the thread's lifetime.
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+    private static final ThreadLocal<ByteArrayOutputStream> BUFFER = ThreadLocal.withInitial(() -> new ByteArrayOutputStream(512));
+
+    private final int maxSize;
+    private final Map<NbtMap, String> encoded = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public NbtEncodingCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public NbtEncodingCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the base64 encoded tag, null if the tag is null
+     */
+    public String encode(NbtMap tag) {
+        if (tag == null) {
+            return null;
+        }
+        String value = encoded.get(tag);
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+        misses.increment();
+        value = encodeUncached(tag);
+        // Once full, new tags are still encoded but no longer remembered.
+        if (encoded.size() < maxSize) {
+            encoded.putIfAbsent(tag, value);
+        }
+        return value;
+    }
+
+    public static String encodeUncached(NbtMap tag) {
+        ByteArrayOutputStream stream = BUFFER.get();
+        stream.reset();
+        try (NBTOutputStream writer = NbtUtils.createWriterLE(stream)) {
+            writer.writeTag(tag);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        String value = Base64.getEncoder().encodeToString(stream.toByteArray());
+        if (stream.size() > MAX_RETAINED_BUFFER) {
+            BUFFER.remove();
+        }
+        return value;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public void logStats(String dumpName) {
+        log.debug("Encoded {} NBT tags for {}, {} distinct, {}% cache hits", getHits() + getMisses(), dumpName,
+                encoded.size(), Math.round(getHitRate() * 100));
+    }
+}
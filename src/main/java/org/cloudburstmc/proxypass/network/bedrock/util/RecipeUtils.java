@@ -4,9 +4,6 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import lombok.*;
 import lombok.experimental.UtilityClass;
-import org.cloudburstmc.nbt.NBTOutputStream;
-import org.cloudburstmc.nbt.NbtMap;
-import org.cloudburstmc.nbt.NbtUtils;
 import org.cloudburstmc.protocol.bedrock.data.inventory.ItemData;
 import org.cloudburstmc.protocol.bedrock.data.inventory.crafting.ContainerMixData;
 import org.cloudburstmc.protocol.bedrock.data.inventory.crafting.CraftingDataType;
@@ -17,141 +14,175 @@ import org.cloudburstmc.protocol.bedrock.data.inventory.descriptor.*;
 import org.cloudburstmc.protocol.bedrock.packet.CraftingDataPacket;
 import org.cloudburstmc.proxypass.ProxyPass;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinTask;
 
 @UtilityClass
 public class RecipeUtils {
     private static final char[] SHAPE_CHARS = {'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J'};
+    // Recipes converted per task, below this the fork/join overhead outweighs the conversion work.
+    private static final int BATCH_SIZE = 256;
 
-    public static void writeRecipes(CraftingDataPacket packet, ProxyPass proxy) {
-        List<CraftingDataEntry> entries = new ArrayList<>();
+    /**
+     * @return completes once the recipes are written
+     */
+    public static CompletableFuture<Void> writeRecipes(CraftingDataPacket packet, ProxyPass proxy) {
         List<PotionMixDataEntry> potions = new ArrayList<>();
         List<ContainerMixDataEntry> containers = new ArrayList<>();
 
-        for (RecipeData recipe : packet.getCraftingData()) {
-            CraftingDataEntry entry = new CraftingDataEntry();
+        // Recipes are converted independently of each other on the proxy's conversion pool, whose workers each
+        // reuse one NBT encoding buffer. Batches are written in packet order as they complete, so only the batches
+        // not written yet are held at any time.
+        List<RecipeData> craftingData = packet.getCraftingData();
+        NbtEncodingCache nbtCache = new NbtEncodingCache();
+        Deque<ForkJoinTask<List<CraftingDataEntry>>> batches = new ArrayDeque<>();
+        for (int start = 0; start < craftingData.size(); start += BATCH_SIZE) {
+            List<RecipeData> batch = craftingData.subList(start, Math.min(craftingData.size(), start + BATCH_SIZE));
+            batches.add(proxy.getConversionPool().submit(() -> batch.stream()
+                    .map(recipe -> toEntry(recipe, nbtCache))
+                    .toList()));
+        }
 
-            CraftingDataType type = recipe.getType();
-            entry.type = type.ordinal();
+        for (PotionMixData potion : packet.getPotionMixData()) {
+            potions.add(new PotionMixDataEntry(
+                    ProxyPass.legacyIdMap.get(potion.getInputId()),
+                    potion.getInputMeta(),
+                    ProxyPass.legacyIdMap.get(potion.getReagentId()),
+                    potion.getReagentMeta(),
+                    ProxyPass.legacyIdMap.get(potion.getOutputId()),
+                    potion.getOutputMeta()
+            ));
+        }
 
-            if (recipe instanceof TaggedCraftingData taggedRecipe) {
-                entry.block = taggedRecipe.getTag();
-            } else if (recipe instanceof UniqueCraftingData uniqueRecipe) {
-                entry.uuid = uniqueRecipe.getUuid();
-            }
+        for (ContainerMixData container : packet.getContainerMixData()) {
+            containers.add(new ContainerMixDataEntry(
+                    ProxyPass.legacyIdMap.get(container.getInputId()),
+                    ProxyPass.legacyIdMap.get(container.getReagentId()),
+                    ProxyPass.legacyIdMap.get(container.getOutputId())
+            ));
+        }
 
-            if (recipe instanceof CraftingRecipeData craftingRecipe) {
-                entry.id = craftingRecipe.getId();
-                entry.priority = craftingRecipe.getPriority();
-                entry.output = writeItemArray(craftingRecipe.getResults().toArray(new ItemData[0]));
-                RecipeUnlockingRequirement requirement = craftingRecipe.getRequirement();
-                if (requirement != null && requirement.getContext() != RecipeUnlockingRequirement.UnlockingContext.NONE) {
-                    entry.unlockContext = requirement.getContext().name();
+        return proxy.streamJson("recipes.json", generator -> {
+            generator.writeStartObject();
+            generator.writeNumberProperty("version", ProxyPass.CODEC.getProtocolVersion());
+            generator.writeName("recipes");
+            generator.writeStartArray();
+            ForkJoinTask<List<CraftingDataEntry>> batch;
+            while ((batch = batches.poll()) != null) {
+                for (CraftingDataEntry entry : batch.join()) {
+                    generator.writePOJO(entry);
                 }
             }
+            generator.writeEndArray();
+            generator.writeName("potionMixes");
+            generator.writePOJO(potions);
+            generator.writeName("containerMixes");
+            generator.writePOJO(containers);
+            generator.writeEndObject();
+            nbtCache.logStats("recipes");
+        });
+    }
 
-            if (recipe instanceof ShapedRecipeData shapedRecipe) {
-                int charCounter = 0;
-                List<ItemDescriptorWithCount> inputs = shapedRecipe.getIngredients();
-                Map<Descriptor, Character> charItemMap = new HashMap<>();
-                char[][] shape = new char[shapedRecipe.getHeight()][shapedRecipe.getWidth()];
-
-                for (int height = 0; height < shapedRecipe.getHeight(); height++) {
-                    Arrays.fill(shape[height], ' ');
-                    int index = height * shapedRecipe.getWidth();
-                    for (int width = 0; width < shapedRecipe.getWidth(); width++) {
-                        int slot = index + width;
-                        Descriptor descriptor = fromNetwork(inputs.get(slot));
-
-                        if (ItemDescriptorType.INVALID.name().toLowerCase().equals(descriptor.getType())) {
-                            continue;
-                        }
-
-                        Character shapeChar = charItemMap.get(descriptor);
-                        if (shapeChar == null) {
-                            shapeChar = SHAPE_CHARS[charCounter++];
-                            charItemMap.put(descriptor, shapeChar);
-                        }
-
-                        shape[height][width] = shapeChar;
-                    }
-                }
+    private static CraftingDataEntry toEntry(RecipeData recipe, NbtEncodingCache nbtCache) {
+        CraftingDataEntry entry = new CraftingDataEntry();
 
-                String[] shapeString = new String[shape.length];
-                for (int i = 0; i < shape.length; i++) {
-                    shapeString[i] = new String(shape[i]);
-                }
-                entry.shape = shapeString;
+        CraftingDataType type = recipe.getType();
+        entry.type = type.ordinal();
 
-                Map<Character, Descriptor> itemMap = new HashMap<>();
-                for (Map.Entry<Descriptor, Character> mapEntry : charItemMap.entrySet()) {
-                    itemMap.put(mapEntry.getValue(), mapEntry.getKey());
-                }
-                entry.input = itemMap;
-                entry.assumeSymetry = shapedRecipe.isAssumeSymetry();
-            }
+        if (recipe instanceof TaggedCraftingData taggedRecipe) {
+            entry.block = taggedRecipe.getTag();
+        } else if (recipe instanceof UniqueCraftingData uniqueRecipe) {
+            entry.uuid = uniqueRecipe.getUuid();
+        }
 
-            if (recipe instanceof ShapelessRecipeData shapelessRecipe) {
-                entry.input = writeDescriptorArray(shapelessRecipe.getIngredients());
+        if (recipe instanceof CraftingRecipeData craftingRecipe) {
+            entry.id = craftingRecipe.getId();
+            entry.priority = craftingRecipe.getPriority();
+            entry.output = writeItemArray(craftingRecipe.getResults().toArray(new ItemData[0]), nbtCache);
+            RecipeUnlockingRequirement requirement = craftingRecipe.getRequirement();
+            if (requirement != null && requirement.getContext() != RecipeUnlockingRequirement.UnlockingContext.NONE) {
+                entry.unlockContext = requirement.getContext().name();
             }
+        }
+
+        if (recipe instanceof ShapedRecipeData shapedRecipe) {
+            int charCounter = 0;
+            List<ItemDescriptorWithCount> inputs = shapedRecipe.getIngredients();
+            Map<Descriptor, Character> charItemMap = new HashMap<>();
+            char[][] shape = new char[shapedRecipe.getHeight()][shapedRecipe.getWidth()];
+
+            for (int height = 0; height < shapedRecipe.getHeight(); height++) {
+                Arrays.fill(shape[height], ' ');
+                int index = height * shapedRecipe.getWidth();
+                for (int width = 0; width < shapedRecipe.getWidth(); width++) {
+                    int slot = index + width;
+                    Descriptor descriptor = fromNetwork(inputs.get(slot));
+
+                    if (ItemDescriptorType.INVALID.name().toLowerCase().equals(descriptor.getType())) {
+                        continue;
+                    }
+
+                    Character shapeChar = charItemMap.get(descriptor);
+                    if (shapeChar == null) {
+                        shapeChar = SHAPE_CHARS[charCounter++];
+                        charItemMap.put(descriptor, shapeChar);
+                    }
 
-            if (recipe instanceof SmithingTransformRecipeData smithingTransform) {
-                Map<String, Descriptor> smithingInput = new LinkedHashMap<>();
-                smithingInput.put("template", fromNetwork(smithingTransform.getTemplate()));
-                smithingInput.put("base", fromNetwork(smithingTransform.getBase()));
-                smithingInput.put("addition", fromNetwork(smithingTransform.getAddition()));
-                entry.input = smithingInput;
-                entry.output = itemFromNetwork(smithingTransform.getResult());
+                    shape[height][width] = shapeChar;
+                }
             }
 
-            if (recipe instanceof SmithingTrimRecipeData smithingTrim) {
-                Map<String, Descriptor> smithingInput = new LinkedHashMap<>();
-                smithingInput.put("base", fromNetwork(smithingTrim.getBase()));
-                smithingInput.put("addition", fromNetwork(smithingTrim.getAddition()));
-                smithingInput.put("template", fromNetwork(smithingTrim.getTemplate()));
-                entry.input = smithingInput;
+            String[] shapeString = new String[shape.length];
+            for (int i = 0; i < shape.length; i++) {
+                shapeString[i] = new String(shape[i]);
             }
+            entry.shape = shapeString;
 
-            // Since v975 (1.26.20) furnace recipes are encoded as shapeless recipes, retained here for backwards compatibility
-            if (recipe instanceof FurnaceRecipeData furnaceRecipe) {
-                Integer damage = furnaceRecipe.getInputData();
-                if (damage == 0x7fff) damage = -1;
-                if (damage == 0) damage = null;
-                entry.input = new Item(furnaceRecipe.getInputId(), ProxyPass.legacyIdMap.get(furnaceRecipe.getInputId()), damage, null, null);
-                entry.output = itemFromNetwork(furnaceRecipe.getResult());
+            Map<Character, Descriptor> itemMap = new HashMap<>();
+            for (Map.Entry<Descriptor, Character> mapEntry : charItemMap.entrySet()) {
+                itemMap.put(mapEntry.getValue(), mapEntry.getKey());
             }
-            entries.add(entry);
+            entry.input = itemMap;
+            entry.assumeSymetry = shapedRecipe.isAssumeSymetry();
         }
 
-        for (PotionMixData potion : packet.getPotionMixData()) {
-            potions.add(new PotionMixDataEntry(
-                    ProxyPass.legacyIdMap.get(potion.getInputId()),
-                    potion.getInputMeta(),
-                    ProxyPass.legacyIdMap.get(potion.getReagentId()),
-                    potion.getReagentMeta(),
-                    ProxyPass.legacyIdMap.get(potion.getOutputId()),
-                    potion.getOutputMeta()
-            ));
+        if (recipe instanceof ShapelessRecipeData shapelessRecipe) {
+            entry.input = writeDescriptorArray(shapelessRecipe.getIngredients());
         }
 
-        for (ContainerMixData container : packet.getContainerMixData()) {
-            containers.add(new ContainerMixDataEntry(
-                    ProxyPass.legacyIdMap.get(container.getInputId()),
-                    ProxyPass.legacyIdMap.get(container.getReagentId()),
-                    ProxyPass.legacyIdMap.get(container.getOutputId())
-            ));
+        if (recipe instanceof SmithingTransformRecipeData smithingTransform) {
+            Map<String, Descriptor> smithingInput = new LinkedHashMap<>();
+            smithingInput.put("template", fromNetwork(smithingTransform.getTemplate()));
+            smithingInput.put("base", fromNetwork(smithingTransform.getBase()));
+            smithingInput.put("addition", fromNetwork(smithingTransform.getAddition()));
+            entry.input = smithingInput;
+            entry.output = itemFromNetwork(smithingTransform.getResult(), nbtCache);
+        }
+
+        if (recipe instanceof SmithingTrimRecipeData smithingTrim) {
+            Map<String, Descriptor> smithingInput = new LinkedHashMap<>();
+            smithingInput.put("base", fromNetwork(smithingTrim.getBase()));
+            smithingInput.put("addition", fromNetwork(smithingTrim.getAddition()));
+            smithingInput.put("template", fromNetwork(smithingTrim.getTemplate()));
+            entry.input = smithingInput;
         }
 
-        Recipes recipes = new Recipes(ProxyPass.CODEC.getProtocolVersion(), entries, potions, containers);
-        proxy.saveJson("recipes.json", recipes);
+        // Since v975 (1.26.20) furnace recipes are encoded as shapeless recipes, retained here for backwards compatibility
+        if (recipe instanceof FurnaceRecipeData furnaceRecipe) {
+            Integer damage = furnaceRecipe.getInputData();
+            if (damage == 0x7fff) damage = -1;
+            if (damage == 0) damage = null;
+            entry.input = new Item(furnaceRecipe.getInputId(), ProxyPass.legacyIdMap.get(furnaceRecipe.getInputId()), damage, null, null);
+            entry.output = itemFromNetwork(furnaceRecipe.getResult(), nbtCache);
+        }
+        return entry;
     }
 
-    private static List<Item> writeItemArray(ItemData[] inputs) {
+    private static List<Item> writeItemArray(ItemData[] inputs, NbtEncodingCache nbtCache) {
         List<Item> outputs = new ArrayList<>();
         for (ItemData input : inputs) {
-            Item item = itemFromNetwork(input);
+            Item item = itemFromNetwork(input, nbtCache);
             if (item != Item.EMPTY) {
                 outputs.add(item);
             }
@@ -170,26 +201,12 @@ public class RecipeUtils {
         return outputs;
     }
 
-    private static String nbtToBase64(NbtMap tag) {
-        if (tag != null) {
-            ByteArrayOutputStream tagStream = new ByteArrayOutputStream();
-            try (NBTOutputStream writer = NbtUtils.createWriterLE(tagStream)) {
-                writer.writeTag(tag);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-            return Base64.getEncoder().encodeToString(tagStream.toByteArray());
-        } else {
-            return null;
-        }
-    }
-
-    private static Item itemFromNetwork(ItemData data) {
+    private static Item itemFromNetwork(ItemData data, NbtEncodingCache nbtCache) {
         int id = data.getDefinition().getRuntimeId();
         String identifier = ProxyPass.legacyIdMap.get(id);
         Integer damage = data.getDamage();
         Integer count = data.getCount();
-        String tag = nbtToBase64(data.getTag());
+        String tag = nbtCache.encode(data.getTag());
 
         if (id == 0) {
             return Item.EMPTY;
@@ -273,10 +290,6 @@ public class RecipeUtils {
 
     }
 
-    @JsonPropertyOrder({"version", "recipes", "potionMixes", "containerMixes"})
-    private record Recipes(int version, List<CraftingDataEntry> recipes, List<PotionMixDataEntry> potionMixes, List<ContainerMixDataEntry> containerMixes) {
-    }
-
     @Data
     @JsonInclude(JsonInclude.Include.NON_NULL)
     @JsonPropertyOrder({"type", "count", "id", "itemId", "auxValue", "fullName", "itemTag", "complexAliasName", "tagExpression", "molangVersion"})
@@ -0,0 +1,15 @@
+package org.cloudburstmc.proxypass.network.bedrock.util;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public enum SkinExport {
+    @JsonProperty("png")
+    PNG,
+    /**
+     * Raw RGBA bytes, much cheaper than PNG encoding. The size is part of the file name.
+     */
+    @JsonProperty("raw")
+    RAW,
+    @JsonProperty("none")
+    NONE
+}
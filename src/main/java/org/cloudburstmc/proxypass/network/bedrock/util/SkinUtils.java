@@ -1,14 +1,19 @@
 package org.cloudburstmc.proxypass.network.bedrock.util;
 
+import lombok.extern.log4j.Log4j2;
 import org.cloudburstmc.protocol.bedrock.util.JsonUtils;
+import org.cloudburstmc.proxypass.network.bedrock.logging.BlobStore;
+import org.cloudburstmc.proxypass.network.bedrock.logging.SessionLogger;
 import org.cloudburstmc.proxypass.network.bedrock.session.ProxyPlayerSession;
 import org.jose4j.json.internal.json_simple.JSONObject;
 
+import javax.imageio.ImageIO;
 import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
 import java.util.Base64;
 
+@Log4j2
 public class SkinUtils {
 
     private static final int PIXEL_SIZE = 4;
@@ -19,7 +24,25 @@ public class SkinUtils {
     public static final int SKIN_128_128_SIZE = 128 * 128 * PIXEL_SIZE;
     public static final int SKIN_256_256_SIZE = 256 * 256 * PIXEL_SIZE;
 
+    private static final int CAPE_WIDTH = 64;
+    private static final int CAPE_HEIGHT = 32;
+
+    // Matches the RGBA byte order of skin data, so images can wrap the decoded bytes without converting them.
+    private static final ColorModel RGBA_COLOR_MODEL = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+            true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+    private static final int[] RGBA_BAND_OFFSETS = {0, 1, 2, 3};
+
     public static void saveSkin(ProxyPlayerSession session, JSONObject skinData) {
+        SkinExport export = session.getProxy().getConfiguration().getSkinExport();
+        if (export != SkinExport.NONE) {
+            saveImages(session, export, skinData);
+        }
+
+        byte[] geometry = Base64.getDecoder().decode(JsonUtils.childAsType(skinData, "SkinGeometryData", String.class));
+        saveGeometry(session, geometry);
+    }
+
+    private static void saveImages(ProxyPlayerSession session, SkinExport export, JSONObject skinData) {
         byte[] skin = Base64.getDecoder().decode(JsonUtils.childAsType(skinData, "SkinData", String.class));
         int width, height;
         if (skin.length == SINGLE_SKIN_SIZE) {
@@ -40,30 +63,54 @@ public class SkinUtils {
         } else {
             throw new IllegalStateException("Invalid skin");
         }
-        saveImage(session, width, height, skin, "skin");
+        saveImage(session, export, width, height, skin, "skin");
 
         byte[] cape = Base64.getDecoder().decode(JsonUtils.childAsType(skinData, "CapeData", String.class));
-        if (cape.length != 0) {
-            saveImage(session, 64, 32, cape, "cape");
+        if (cape.length == CAPE_WIDTH * CAPE_HEIGHT * PIXEL_SIZE) {
+            saveImage(session, export, CAPE_WIDTH, CAPE_HEIGHT, cape, "cape");
+        } else if (cape.length != 0) {
+            log.debug("Skipping cape with unexpected size {}", cape.length);
         }
-
-        byte[] geometry = Base64.getDecoder().decode(JsonUtils.childAsType(skinData, "SkinGeometryData", String.class));
-        session.getLogger().saveJson("geometryData", geometry);
     }
 
-    private static void saveImage(ProxyPlayerSession session, int width, int height, byte[] bytes, String name) {
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
-
-        ByteArrayInputStream data = new ByteArrayInputStream(bytes);
-
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                Color color = new Color(data.read(), data.read(), data.read(), data.read());
-                image.setRGB(x, y, color.getRGB());
+    private static void saveImage(ProxyPlayerSession session, SkinExport export, int width, int height, byte[] bytes, String name) {
+        SessionLogger logger = session.getLogger();
+        BlobStore store = getStore(session);
+        if (export == SkinExport.RAW) {
+            String fileName = name + '_' + width + 'x' + height + ".rgba";
+            if (store != null) {
+                logger.linkBlob(fileName, store.store(bytes, "rgba", stream -> stream.write(bytes)));
+            } else {
+                logger.saveRawImage(name, width, height, bytes);
             }
+        } else if (store != null) {
+            // Keyed by the pixels, so a skin that has been seen before is not encoded again.
+            logger.linkBlob(name + ".png", store.store(bytes, "png",
+                    stream -> ImageIO.write(toImage(width, height, bytes), "png", stream)));
+        } else {
+            logger.saveImage(name, toImage(width, height, bytes));
         }
+    }
 
-        session.getLogger().saveImage(name, image);
+    private static void saveGeometry(ProxyPlayerSession session, byte[] geometry) {
+        BlobStore store = getStore(session);
+        if (store != null) {
+            session.getLogger().linkBlob("geometryData.json", store.store(geometry, "json", stream -> stream.write(geometry)));
+        } else {
+            session.getLogger().saveJson("geometryData", geometry);
+        }
+    }
+
+    private static BlobStore getStore(ProxyPlayerSession session) {
+        return session.getProxy().getConfiguration().isDeduplicateSkins() ? session.getProxy().getSkinStore() : null;
     }
 
+    /**
+     * Wraps RGBA pixel data in an image without copying it. The array must not be modified while the image is in use.
+     */
+    public static BufferedImage toImage(int width, int height, byte[] rgba) {
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(rgba, rgba.length), width, height,
+                width * PIXEL_SIZE, PIXEL_SIZE, RGBA_BAND_OFFSETS, null);
+        return new BufferedImage(RGBA_COLOR_MODEL, raster, false, null);
+    }
 }
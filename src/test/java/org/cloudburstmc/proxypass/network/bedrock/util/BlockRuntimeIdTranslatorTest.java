@@ -0,0 +1,154 @@
+package org.cloudburstmc.proxypass.network.bedrock.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.cloudburstmc.math.vector.Vector3i;
+import org.cloudburstmc.nbt.NbtMap;
+import org.cloudburstmc.protocol.bedrock.data.BlockChangeEntry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sub-chunks are built by hand with their own zigzag VarInt encoding, so the tests don't share the translator's
+ * encoder. Hashed IDs are mostly negative, which is where zigzag encoding matters.
+ */
+class BlockRuntimeIdTranslatorTest {
+    private static final List<NbtMap> PALETTE = List.of(
+            block("minecraft:air"),
+            block("minecraft:stone"),
+            block("minecraft:dirt"),
+            block("minecraft:grass_block"),
+            block("minecraft:bedrock"));
+    private static final int[] SEQUENTIAL = {0, 3, 1, 4};
+    private static final int WORDS = 256; // 2 bits per block, 16 blocks per word
+
+    private static BlockRuntimeIdTranslator toHashed;
+    private static BlockRuntimeIdTranslator toSequential;
+    private static int[] hashed;
+
+    @BeforeAll
+    static void createTranslators() {
+        toHashed = BlockRuntimeIdTranslator.create(PALETTE, true, new UnknownBlockDefinitionRegistry());
+        toSequential = BlockRuntimeIdTranslator.create(PALETTE, false, new UnknownBlockDefinitionRegistry());
+        hashed = new int[SEQUENTIAL.length];
+        for (int i = 0; i < SEQUENTIAL.length; i++) {
+            hashed[i] = BlockPaletteUtils.createHash(PALETTE.get(SEQUENTIAL[i]));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 8, 9})
+    void translatesSubChunkPalettes(int version) {
+        ByteBuf sequential = Unpooled.buffer();
+        writeSubChunk(sequential, version, SEQUENTIAL);
+        ByteBuf expected = Unpooled.buffer();
+        writeSubChunk(expected, version, hashed);
+
+        ByteBuf translated = toHashed.translateSubChunks(sequential, 1);
+        assertTrue(ByteBufUtil.equals(expected, translated), "palette translated to hashed IDs");
+        assertEquals(0, sequential.readerIndex(), "input left untouched");
+
+        ByteBuf roundTrip = toSequential.translateSubChunks(translated, 1);
+        assertTrue(ByteBufUtil.equals(sequential, roundTrip), "translated back to sequential IDs");
+
+        translated.release();
+        roundTrip.release();
+    }
+
+    @Test
+    void copiesDataAfterSubChunks() {
+        // A level chunk: several sub-chunks followed by biomes and the border block count.
+        byte[] trailer = {0x7f, 0x01, 0x02, (byte) 0xff, 0x00};
+        ByteBuf sequential = Unpooled.buffer();
+        ByteBuf expected = Unpooled.buffer();
+        for (int version : new int[]{8, 9, 9}) {
+            writeSubChunk(sequential, version, SEQUENTIAL);
+            writeSubChunk(expected, version, hashed);
+        }
+        sequential.writeBytes(trailer);
+        expected.writeBytes(trailer);
+
+        ByteBuf translated = toHashed.translateSubChunks(sequential, 3);
+        assertTrue(ByteBufUtil.equals(expected, translated));
+        translated.release();
+    }
+
+    @Test
+    void translatesBlockChanges() {
+        BlockChangeEntry entry = new BlockChangeEntry(Vector3i.from(1, -60, 3), new UnknownBlockDefinitionRegistry().getDefinition(3),
+                3, 0, BlockChangeEntry.MessageType.NONE);
+        BlockChangeEntry translated = toHashed.translate(entry);
+        assertEquals(BlockPaletteUtils.createHash(PALETTE.get(3)), translated.getDefinition().getRuntimeId());
+        assertEquals(entry.getPosition(), translated.getPosition());
+        assertEquals(entry.getUpdateFlags(), translated.getUpdateFlags());
+        assertEquals(3, toSequential.translate(translated).getDefinition().getRuntimeId());
+    }
+
+    @Test
+    void passesUnknownIdsThrough() {
+        assertEquals(PALETTE.size(), toHashed.translate(PALETTE.size()));
+        assertEquals(12345, toSequential.translate(12345));
+    }
+
+    @Test
+    void rejectsUntranslatableSubChunks() {
+        ByteBuf unknownVersion = Unpooled.buffer().writeByte(2);
+        assertThrows(IllegalStateException.class, () -> toHashed.translateSubChunks(unknownVersion, 1));
+
+        // Persistent palettes store block states as NBT instead of runtime IDs.
+        ByteBuf persistent = Unpooled.buffer().writeByte(1).writeByte(2 << 1);
+        assertThrows(IllegalStateException.class, () -> toHashed.translateSubChunks(persistent, 1));
+    }
+
+    /**
+     * Writes a sub-chunk with a two bit storage using the given palette. Versions 8 and 9 get a second, single
+     * block storage holding the second palette entry.
+     */
+    private static void writeSubChunk(ByteBuf buf, int version, int[] palette) {
+        buf.writeByte(version);
+        int storages = version == 1 ? 1 : 2;
+        if (version != 1) {
+            buf.writeByte(storages);
+        }
+        if (version == 9) {
+            buf.writeByte(-4); // sub-chunk index
+        }
+
+        buf.writeByte(2 << 1 | 1);
+        for (int i = 0; i < WORDS; i++) {
+            buf.writeIntLE(i * 0x01010101 ^ 0x1b2c3d4e);
+        }
+        writeZigZag(buf, palette.length);
+        for (int id : palette) {
+            writeZigZag(buf, id);
+        }
+
+        if (storages == 2) {
+            buf.writeByte(1);
+            writeZigZag(buf, palette[1]);
+        }
+    }
+
+    private static void writeZigZag(ByteBuf buf, int value) {
+        int encoded = (value << 1) ^ (value >> 31);
+        while ((encoded & ~0x7f) != 0) {
+            buf.writeByte((encoded & 0x7f) | 0x80);
+            encoded >>>= 7;
+        }
+        buf.writeByte(encoded);
+    }
+
+    private static NbtMap block(String name) {
+        return NbtMap.builder()
+                .putString("name", name)
+                .putCompound("states", NbtMap.EMPTY)
+                .build();
+    }
+}